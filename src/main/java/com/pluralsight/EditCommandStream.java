@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight;
+
+import com.pluralsight.drawing.*;
+import com.pluralsight.export.*;
+import com.pluralsight.shapes.*;
+
+import javax.imageio.*;
+import java.awt.Color;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Applies a stream of text edit commands to a painting, one command per line.
+ * <p>
+ * Commands are parsed straight out of a reused buffer, without splitting lines into strings,
+ * and applied in batches, taking the painting's lock once for each run of edits,
+ * so generated scripts of millions of edits run in seconds.
+ * The lock isn't held while waiting for input, nor while saving, reloading, rendering or picking,
+ * which take what they need from the painting themselves.
+ * Lines which can't be parsed are reported and skipped.
+ * <p>
+ * Commands:
+ * <pre>
+ * circle X Y RADIUS
+ * rect X Y WIDTH HEIGHT
+ * polygon X Y SIDES RADIUS [ANGLE]
+ * color NAME | #RRGGBB | #AARRGGBB    the color of shapes added afterwards
+ * fill NAME | #RRGGBB | #AARRGGBB | none
+ *                                     the fill color of shapes added afterwards
+ * stroke WIDTH                        the stroke width of shapes added afterwards
+ * remove INDEX                        negative indexes count back from the last shape
+ * pick X Y                            reports the topmost shape drawn at the point
+ * undo
+ * redo
+ * save [FILE]                         journals the painting to the file, syncing it on later saves,
+ *                                     and updates its thumbnail
+ * reload [FILE]                       replaces the shapes with a saved revision, redrawing only what differs
+ * render FILE.png [SCALE]
+ * export FILE.png SCALE [FILE.png SCALE [FILE.png SCALE]]
+ *                                     renders several sizes at once
+ * # a comment
+ * </pre>
+ */
+public final class EditCommandStream implements Closeable {
+    /// the most lines read before any are applied
+    private static final int BATCH_SIZE = 4096;
+    private static final int MAX_TOKENS = 8;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+    };
+    private static final String[] COLOR_NAMES = {
+        "black", "white", "gray", "red", "green", "blue", "yellow", "orange", "pink", "magenta", "cyan",
+    };
+    private static final Color[] NAMED_COLORS = {
+        Color.BLACK, Color.WHITE, Color.GRAY, Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.ORANGE,
+        Color.PINK, Color.MAGENTA, Color.CYAN,
+    };
+    private final Painting painting;
+    private final PrintStream log;
+    private File file;
+    private PaintingJournal journal;
+    /// made the first time a shape is picked
+    private ShapeIdBuffer ids;
+    /// made the first time the painting is saved
+    private ThumbnailCache thumbnails;
+    private Color color = Color.BLACK;
+    private Color fillColor;
+    private double strokeWidth = 1;
+    private final char[] buffer = new char[1 << 16];
+    private int position;
+    private int limit;
+    /// the text of the batch's lines, one after another
+    private char[] chars = new char[1 << 16];
+    private int length;
+    /// where each line of the batch ends in chars
+    private final int[] lineEnds = new int[BATCH_SIZE];
+    private int lineCount;
+    /// the number of tokens on each line of the batch, or -1 if it has too many
+    private final int[] tokenCounts = new int[BATCH_SIZE];
+    /// the tokens of each line of the batch, MAX_TOKENS to a line
+    private final int[] tokenStarts = new int[BATCH_SIZE * MAX_TOKENS];
+    private final int[] tokenEnds = new int[BATCH_SIZE * MAX_TOKENS];
+    /// the tokens of the line being applied
+    private final int[] starts = new int[MAX_TOKENS];
+    private final int[] ends = new int[MAX_TOKENS];
+    private int tokens;
+    private long linesRead;
+    /// the number of the line being applied
+    private long lineNumber;
+    private long edits;
+    private long errors;
+
+    /**
+     * @param painting The painting to edit
+     * @param file     The file {@code save} writes to when not given one, or null
+     * @param log      Where to report lines which can't be applied
+     */
+    public EditCommandStream(Painting painting, File file, PrintStream log) {
+        this.painting = painting;
+        this.file = file;
+        this.log = log;
+    }
+
+    /**
+     * Reads and applies commands until the input ends.
+     * The input is not closed.
+     *
+     * @param in The commands to apply
+     * @throws IOException if the input can't be read
+     */
+    public void run(Reader in) throws IOException {
+        position = 0;
+        limit = 0;
+        while (readBatch(in)) {
+            int i = 0;
+            while (i < lineCount) {
+                if (slow(i)) {
+                    apply(i++);
+                    continue;
+                }
+                synchronized (painting) {
+                    do
+                        apply(i++);
+                    while (i < lineCount && !slow(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of commands applied so far
+     */
+    public long getEdits() {
+        return edits;
+    }
+
+    /**
+     * @return The number of lines which couldn't be applied
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Saves the painting to the file last saved to, or the one this stream was created with.
+     * Only the first save to a file writes the whole painting; later ones only write the edits since.
+     *
+     * @throws IOException if the painting couldn't be saved
+     */
+    public void save() throws IOException {
+        save(file);
+    }
+
+    /**
+     * Writes any journaled edits to disk, finishes the thumbnails of saved paintings,
+     * and stops journaling and tracking picked shapes.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ids != null) {
+            ids.detach();
+            ids = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (thumbnails != null) {
+            thumbnails.close();
+            thumbnails = null;
+        }
+    }
+
+    /**
+     * Reads and tokenizes lines until the batch is full or the input ends,
+     * or until the input would block once a line has been read, so waiting for input never delays applying it.
+     *
+     * @return false if the input ended before another line
+     */
+    private boolean readBatch(Reader in) throws IOException {
+        length = 0;
+        lineCount = 0;
+        while (lineCount < BATCH_SIZE && (lineCount == 0 || position < limit || in.ready()) && readLine(in))
+            tokenize(lineCount++);
+        return lineCount > 0;
+    }
+
+    private boolean readLine(Reader in) throws IOException {
+        int start = length;
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    if (length == start)
+                        return false;
+                    break;
+                }
+            }
+            char c = buffer[position++];
+            if (c == '\n')
+                break;
+            if (length == chars.length)
+                chars = Arrays.copyOf(chars, 2 * length);
+            chars[length++] = c;
+        }
+        lineEnds[lineCount] = length;
+        linesRead++;
+        return true;
+    }
+
+    /**
+     * Makes a line of the batch the one the parsing methods read.
+     */
+    private void load(int index) {
+        tokens = tokenCounts[index];
+        if (tokens > 0) {
+            System.arraycopy(tokenStarts, index * MAX_TOKENS, starts, 0, tokens);
+            System.arraycopy(tokenEnds, index * MAX_TOKENS, ends, 0, tokens);
+        }
+        lineNumber = linesRead - lineCount + index + 1;
+    }
+
+    /**
+     * @return true if a line of the batch is a command which mustn't run holding the painting's lock
+     */
+    private boolean slow(int index) {
+        load(index);
+        return tokens > 0 && (is(0, "save") || is(0, "reload") || is(0, "render") || is(0, "export")
+            || is(0, "pick"));
+    }
+
+    private void apply(int index) {
+        load(index);
+        try {
+            if (tokens < 0)
+                throw new IllegalArgumentException("Too many arguments");
+            if (tokens == 0)
+                return;
+            if (is(0, "circle")) {
+                expect(4, 4);
+                painting.add(new Circle(color, fillColor, strokeWidth, number(1), number(2), size(3)));
+            } else if (is(0, "rect")) {
+                expect(5, 5);
+                painting.add(new Rect(color, fillColor, strokeWidth, number(1), number(2), size(3), size(4)));
+            } else if (is(0, "polygon")) {
+                expect(5, 6);
+                painting.add(new RegularPolygon(color, fillColor, strokeWidth, number(1), number(2),
+                    sides(3), tokens > 5 ? number(5) : 0, size(4)));
+            } else if (is(0, "color")) {
+                expect(2, 2);
+                color = color(1);
+            } else if (is(0, "fill")) {
+                expect(2, 2);
+                fillColor = is(1, "none") ? null : color(1);
+            } else if (is(0, "stroke")) {
+                expect(2, 2);
+                strokeWidth = size(1);
+            } else if (is(0, "remove")) {
+                expect(2, 2);
+                long at = integer(1);
+                painting.remove((int) (at < 0 ? painting.size() + at : at));
+            } else if (is(0, "pick")) {
+                expect(3, 3);
+                if (ids == null)
+                    ids = ShapeIdBuffer.attach(painting);
+                var shape = ids.pick(number(1), number(2));
+                log.println(shape == null ? "nothing" : "${shape.getClass().getSimpleName().toLowerCase()} ${shape.id}");
+            } else if (is(0, "undo")) {
+                expect(1, 1);
+                painting.undo();
+            } else if (is(0, "redo")) {
+                expect(1, 1);
+                painting.redo();
+            } else if (is(0, "save")) {
+                expect(1, 2);
+                save(tokens > 1 ? new File(text(1)) : file);
+            } else if (is(0, "reload")) {
+                expect(1, 2);
+                reload(tokens > 1 ? new File(text(1)) : file);
+            } else if (is(0, "render")) {
+                expect(2, 3);
+                var image = painting.render(RenderProfile.FINAL, Color.WHITE, tokens > 2 ? number(2) : 1);
+                if (!ImageIO.write(image, "png", new File(text(1))))
+                    throw new IOException("No PNG writer is available");
+            } else if (is(0, "export")) {
+                expect(3, 7);
+                if (tokens % 2 == 0)
+                    throw new IllegalArgumentException("export takes a scale for each file");
+                var scales = new LinkedHashMap<File, Double>();
+                for (int i = 1; i < tokens; i += 2)
+                    scales.put(new File(text(i)), number(i + 1));
+                PngExporter.export(painting, scales);
+            } else
+                throw new IllegalArgumentException("Unknown command ${text(0)}");
+            edits++;
+        } catch (IOException | RuntimeException e) {
+            errors++;
+            log.println("line $lineNumber: ${e.getMessage()}");
+        }
+    }
+
+    private void save(File target) throws IOException {
+        if (target == null)
+            throw new IllegalArgumentException("No file to save to");
+        if (journal == null || !target.equals(file)) {
+            if (journal != null)
+                journal.close();
+            journal = null;
+            journal = PaintingJournal.open(target, painting);
+            file = target;
+        }
+        journal.sync();
+        if (thumbnails == null)
+            thumbnails = new ThumbnailCache();
+        thumbnails.saved(file, painting);
+    }
+
+    private void reload(File source) throws IOException {
+        if (source == null)
+            throw new IllegalArgumentException("No file to reload from");
+        var saved = PaintingJournal.read(source);
+        if (saved.width() != painting.width || saved.height() != painting.height)
+            throw new IllegalArgumentException("${source.getPath()} is ${saved.width()}x${saved.height()}, not ${painting.width}x${painting.height}");
+        var diff = painting.update(saved.shapes());
+        log.println("${diff.added().size()} added, ${diff.removed().size()} removed, ${diff.changed().size()} changed");
+    }
+
+    private void tokenize(int index) {
+        int first = index * MAX_TOKENS;
+        int count = 0;
+        int i = index == 0 ? 0 : lineEnds[index - 1];
+        int end = lineEnds[index];
+        while (true) {
+            while (i < end && Character.isWhitespace(chars[i]))
+                i++;
+            if (i == end || chars[i] == '#' && count == 0)
+                break;
+            if (count == MAX_TOKENS) {
+                count = -1;
+                break;
+            }
+            tokenStarts[first + count] = i;
+            while (i < end && !Character.isWhitespace(chars[i]))
+                i++;
+            tokenEnds[first + count++] = i;
+        }
+        tokenCounts[index] = count;
+    }
+
+    private void expect(int min, int max) {
+        if (tokens < min || tokens > max)
+            throw new IllegalArgumentException("${text(0)} takes ${min - 1} to ${max - 1} arguments");
+    }
+
+    private boolean is(int token, String word) {
+        int start = starts[token];
+        if (ends[token] - start != word.length())
+            return false;
+        for (int i = 0; i < word.length(); i++)
+            if (Character.toLowerCase(chars[start + i]) != word.charAt(i))
+                return false;
+        return true;
+    }
+
+    private String text(int token) {
+        return new String(chars, starts[token], ends[token] - starts[token]);
+    }
+
+    private long integer(int token) {
+        int i = starts[token];
+        int end = ends[token];
+        boolean negative = i < end && chars[i] == '-';
+        if (negative || i < end && chars[i] == '+')
+            i++;
+        if (i == end || end - i > 18)
+            throw new NumberFormatException("Not an integer: ${text(token)}");
+        long value = 0;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9')
+                throw new NumberFormatException("Not an integer: ${text(token)}");
+            value = 10 * value + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private double number(int token) {
+        int i = starts[token];
+        int end = ends[token];
+        boolean negative = i < end && chars[i] == '-';
+        if (negative || i < end && chars[i] == '+')
+            i++;
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c == '.' && decimals < 0)
+                decimals = 0;
+            else if (c >= '0' && c <= '9' && digits < 15) {
+                mantissa = 10 * mantissa + (c - '0');
+                digits++;
+                if (decimals >= 0)
+                    decimals++;
+            } else
+                // exponents, long numbers and malformed input take the slow path
+                return Double.parseDouble(text(token));
+        }
+        if (digits == 0)
+            throw new NumberFormatException("Not a number: ${text(token)}");
+        // both operands are exact, so the quotient is rounded the same way Double.parseDouble would
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a radius, width, height or stroke width, which must be finite and not negative.
+     */
+    private double size(int token) {
+        double value = number(token);
+        if (!(value >= 0) || value == Double.POSITIVE_INFINITY)
+            throw new IllegalArgumentException("Not a size: ${text(token)}");
+        return value;
+    }
+
+    private int sides(int token) {
+        long value = integer(token);
+        if (value < 3 || value > RegularPolygon.MAX_SIDES)
+            throw new IllegalArgumentException("A polygon has 3 to ${RegularPolygon.MAX_SIDES} sides, not ${text(token)}");
+        return (int) value;
+    }
+
+    private Color color(int token) {
+        int start = starts[token];
+        int length = ends[token] - start;
+        if (chars[start] == '#' && (length == 7 || length == 9)) {
+            int argb = 0;
+            for (int i = start + 1; i < start + length; i++) {
+                int digit = Character.digit(chars[i], 16);
+                if (digit < 0)
+                    throw new IllegalArgumentException("Not a color: ${text(token)}");
+                argb = argb << 4 | digit;
+            }
+            return Colors.intern(length == 7 ? 0xFF000000 | argb : argb);
+        }
+        for (int i = 0; i < COLOR_NAMES.length; i++)
+            if (is(token, COLOR_NAMES[i]))
+                return NAMED_COLORS[i];
+        throw new IllegalArgumentException("Not a color: ${text(token)}");
+    }
+}
@@ -4,9 +4,34 @@
 
 package com.pluralsight;
 
+import java.io.*;
+import java.nio.charset.*;
+
 @SuppressWarnings("UtilityClass")
 final class MainApp {
-    public static void main(String[] args) {
-        new UserInterface().run();
+    /**
+     * Runs the interactive menu, or with {@code --batch PAINTING [COMMANDS]},
+     * applies edit commands from a file or standard input to a painting and saves it,
+     * or with {@code --serve [PORT]}, serves renders of paintings to local processes until stopped.
+     *
+     * @see RenderService
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--serve")) {
+            var service = RenderService.start(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+            System.err.println("Serving renders at http://127.0.0.1:${service.getPort()}/render");
+            return;
+        }
+        if (args.length < 2 || !args[0].equals("--batch")) {
+            new UserInterface().run();
+            return;
+        }
+        var paintingFile = new File(args[1]);
+        try (Reader commands = args.length > 2
+            ? new FileReader(args[2], StandardCharsets.UTF_8)
+            : new InputStreamReader(System.in, StandardCharsets.UTF_8)) {
+            if (!new UserInterface().runBatch(paintingFile, commands))
+                System.exit(1);
+        }
     }
 }
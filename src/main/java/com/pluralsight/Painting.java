@@ -8,14 +8,31 @@ import com.pluralsight.drawing.*;
 import com.pluralsight.shapes.*;
 import manifold.ext.props.rt.api.*;
 
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.*;
 
 /**
  * Represents a painting.
+ * <p>
+ * Shapes can be looked up, replaced and removed by {@link Shape#id} in constant time.
+ * All methods are safe to call from any thread.
  */
 public final class Painting {
+    private static final int HISTORY_LIMIT = 100;
+    /// size in pixels of the square tiles the regions redrawn after an update are made of
+    private static final int REGION_TILE_SIZE = 64;
+    /// the passes of a progressive draw, from a quick preview to full quality
+    private static final List<Pass> PASSES = List.of(
+        new Pass(0.5, RenderProfile.DRAFT, 1),
+        new Pass(1, null, 0.25));
     /**
      * The width of this painting.
      */
@@ -38,10 +55,20 @@ public final class Painting {
     @var
     @set(PropOption.Private)
     public final transient Turtle turtle;
-    @val
-    private final List<Shape<?>> shapeList;
-    private final transient BlockingQueue<Optional<Shape<?>>> queue = new LinkedBlockingQueue<>();
+    /// the shapes in drawing order, as a circular list around this sentinel
+    private final Node head = new Node(null);
+    private final Map<Long, Node> index = new HashMap<>();
+    private int size;
+    /// a copy of the shape list, or null if it changed since the last copy
+    private List<Shape<?>> snapshot;
+    private final transient BlockingQueue<Optional<TurtleDrawable>> queue = new LinkedBlockingQueue<>();
+    private final transient Deque<Edit> undoStack = new ArrayDeque<>();
+    private final transient Deque<Edit> redoStack = new ArrayDeque<>();
+    private final transient Edit base = new Edit(null, null, null);
+    private final transient List<Listener> listeners = new CopyOnWriteArrayList<>();
     private transient Thread thread;
+    /// counts full redraws, so a progressive pass can tell it has been superseded
+    private transient volatile int generation;
 
     /**
      * @param width     The width in pixels
@@ -49,14 +76,16 @@ public final class Painting {
      * @param shapeList The shapes making up the painting
      * @param world     The canvas to draw to
      * @param turtle    The turtle to draw with
+     * @throws IllegalArgumentException if two shapes have the same id
      */
     public Painting(int width, int height, Collection<Shape<?>> shapeList, World world, Turtle turtle) {
         this.width = width;
         this.height = height;
-        this.shapeList = shapeList
-            .stream()
-            .map(Shape::copy)
-            .collect(Collectors.toCollection(ArrayList::new));
+        head.prev = head;
+        head.next = head;
+        // Shapes are immutable, so they can be shared rather than copied
+        for (Shape<?> shape : shapeList)
+            link(new Node(shape), head.prev);
         this.world = world;
         this.turtle = turtle;
         thread = null;
@@ -69,7 +98,7 @@ public final class Painting {
      * @param world  The canvas to draw on
      * @param turtle The turtle to draw with
      */
-    public void setCanvas(World world, Turtle turtle) {
+    public synchronized void setCanvas(World world, Turtle turtle) {
         this.world = world;
         this.turtle = turtle;
         if (thread != null)
@@ -79,45 +108,604 @@ public final class Painting {
     /**
      * Draws this painting to the given World using the given Turtle.
      * This will clear the canvas first.
+     * A painting without a World, such as one being edited in a batch, is not drawn.
+     * This operation is asynchronous.
+     */
+    public synchronized void draw() {
+        generation++;
+        if (world == null)
+            return;
+        queue.clear();
+        queue.put(Optional.empty());
+        for (Node node = head.next; node != head; node = node.next)
+            queue.put(Optional.of(node.shape));
+        queue.put(Optional.of(new Checkpoint(current())));
+        if (thread == null)
+            start();
+    }
+
+    /**
+     * Draws this painting to the given World without animating the turtle,
+     * first as a quick low detail preview and then at full quality.
+     * Each pass is rendered off screen on the draw thread and shown all at once,
+     * so the whole painting appears almost immediately and then sharpens.
+     * This will clear the canvas first.
      * This operation is asynchronous.
      */
-    public void draw() {
+    public synchronized void drawProgressive() {
+        int drawing = ++generation;
+        if (world == null)
+            return;
         queue.clear();
         queue.put(Optional.empty());
-        shapeList.forEach(shape -> queue.put(Optional.of(shape)));
+        for (Pass pass : PASSES)
+            queue.put(Optional.of(t -> renderPass(pass, drawing)));
+        queue.put(Optional.of(new Checkpoint(current())));
         if (thread == null)
             start();
     }
 
+    /**
+     * Draws this painting onto a graphics context, without animating the turtle.
+     * The painting is placed as it is in a World, so a graphics context with no transform
+     * draws it at its full size in the top left corner.
+     * This operation is synchronous.
+     *
+     * @param g         The graphics to draw with, which will have its color, stroke and transform changed
+     * @param tolerance How far in pixels curves may stray from their true shape
+     */
+    public void render(Graphics2D g, double tolerance) {
+        render(g, null, tolerance, -1);
+    }
+
+    /**
+     * @param pixels  Draws the shapes it can straight into the image g draws on, or null to draw everything with g
+     * @param drawing The generation this render belongs to, or -1 if it can't be superseded
+     * @return false if a newer redraw started before this one finished
+     */
+    private boolean render(Graphics2D g, PixelRasterizer pixels, double tolerance, int drawing) {
+        // The same placement World uses for turtle coordinates
+        g.transform(new AffineTransform(1, 0, 0, -1, width / 2, height / 2));
+        var toPixels = g.getTransform();
+        int i = 0;
+        for (Shape<?> shape : getShapes()) {
+            if (drawing >= 0 && ++i % 256 == 0 && drawing != generation)
+                return false;
+            render(g, pixels, toPixels, shape, shape.outline(tolerance));
+        }
+        return true;
+    }
+
+    /**
+     * @param toPixels g's transform, from turtle coordinates to the pixels of the image it draws on
+     * @param outline  The shape's outline, traced finely enough for the image
+     */
+    private static void render(Graphics2D g, PixelRasterizer pixels, AffineTransform toPixels, Shape<?> shape,
+                               Path2D outline) {
+        // the interior goes under the outline
+        var fill = shape.fillColor;
+        if (fill != null && (pixels == null || !pixels.fill(outline, toPixels, fill))) {
+            g.setColor(fill);
+            g.fill(outline);
+        }
+        if (pixels != null && pixels.draw(outline, toPixels, shape.strokeWidth, shape.color))
+            return;
+        g.setColor(shape.color);
+        g.setStroke(new BasicStroke((float) shape.strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.draw(outline);
+    }
+
+    /**
+     * Finds the parts of the canvas a change to the painting could have changed,
+     * as runs of tiles along each row of a grid over the canvas.
+     *
+     * @return The regions, in pixels
+     */
+    private List<Rectangle> regions(PaintingDiff diff) {
+        var changed = new ArrayList<Shape<?>>(diff.size() + diff.changed().size());
+        changed.addAll(diff.added());
+        changed.addAll(diff.removed());
+        for (var change : diff.changed())
+            if (change.looksDifferent()) {
+                changed.add(change.before());
+                changed.add(change.after());
+            }
+        return regions(changed);
+    }
+
+    /**
+     * Finds the parts of the canvas which adding or removing some shapes could have changed.
+     *
+     * @return The regions, in pixels
+     */
+    private List<Rectangle> regions(List<Shape<?>> changed) {
+        int tilesX = (width + REGION_TILE_SIZE - 1) / REGION_TILE_SIZE;
+        int tilesY = (height + REGION_TILE_SIZE - 1) / REGION_TILE_SIZE;
+        var dirty = new BitSet(tilesX * tilesY);
+        for (Shape<?> shape : changed) {
+            var tiles = tiles(shape);
+            if (tiles != null)
+                for (int ty = tiles.y; ty < tiles.y + tiles.height; ty++)
+                    dirty.set(ty * tilesX + tiles.x, ty * tilesX + tiles.x + tiles.width);
+        }
+
+        var regions = new ArrayList<Rectangle>();
+        for (int start = dirty.nextSetBit(0); start >= 0; ) {
+            // a run ends at the end of its row
+            int row = start / tilesX;
+            int end = Math.min(dirty.nextClearBit(start), (row + 1) * tilesX);
+            int x = start % tilesX * REGION_TILE_SIZE;
+            int y = row * REGION_TILE_SIZE;
+            regions.add(new Rectangle(x, y,
+                Math.min(width, end % tilesX == 0 ? width : end % tilesX * REGION_TILE_SIZE) - x,
+                Math.min(REGION_TILE_SIZE, height - y)));
+            start = dirty.nextSetBit(end);
+        }
+        return regions;
+    }
+
+    /**
+     * @return The tiles of the region grid a shape may draw on, or null if it is off the canvas
+     */
+    private Rectangle tiles(Shape<?> shape) {
+        var bounds = bounds(shape);
+        if (bounds.getMaxX() < 0 || bounds.getMaxY() < 0 || bounds.getMinX() >= width || bounds.getMinY() >= height)
+            return null;
+        int tx0 = (int) Math.max(0, bounds.getMinX()) / REGION_TILE_SIZE;
+        int ty0 = (int) Math.max(0, bounds.getMinY()) / REGION_TILE_SIZE;
+        int tx1 = (int) Math.min(width - 1, bounds.getMaxX()) / REGION_TILE_SIZE;
+        int ty1 = (int) Math.min(height - 1, bounds.getMaxY()) / REGION_TILE_SIZE;
+        return new Rectangle(tx0, ty0, tx1 - tx0 + 1, ty1 - ty0 + 1);
+    }
+
+    /**
+     * @return The pixels a shape may draw on, including its stroke and antialiasing
+     */
+    private Rectangle2D bounds(Shape<?> shape) {
+        // a box worked out from the shape's size, since tracing every shape would cost as much as drawing them
+        var outline = shape.bounds();
+        double pad = shape.strokeWidth / 2 + 2;
+        return new Rectangle2D.Double(
+            width / 2 + outline.getMinX() - pad, height / 2 - outline.getMaxY() - pad,
+            outline.getWidth() + 2 * pad, outline.getHeight() + 2 * pad);
+    }
+
+    /**
+     * Redraws parts of the world from the current shapes, each rendered off screen and shown all at once.
+     */
+    private void renderRegions(List<Rectangle> regions) {
+        // the region covering each tile of the grid regions(diff) uses, or -1
+        int tilesX = (width + REGION_TILE_SIZE - 1) / REGION_TILE_SIZE;
+        int tilesY = (height + REGION_TILE_SIZE - 1) / REGION_TILE_SIZE;
+        int[] regionAt = new int[tilesX * tilesY];
+        Arrays.fill(regionAt, -1);
+        for (int r = 0; r < regions.size(); r++) {
+            var region = regions.get(r);
+            int ty = region.y / REGION_TILE_SIZE;
+            int tx0 = region.x / REGION_TILE_SIZE;
+            int tx1 = (region.x + region.width - 1) / REGION_TILE_SIZE;
+            Arrays.fill(regionAt, ty * tilesX + tx0, ty * tilesX + tx1 + 1, r);
+        }
+
+        // only shapes over a region are traced, each once however many regions it crosses
+        var shapes = new ArrayList<List<Shape<?>>>(regions.size());
+        var outlines = new ArrayList<List<Path2D>>(regions.size());
+        for (int r = 0; r < regions.size(); r++) {
+            shapes.add(new ArrayList<>());
+            outlines.add(new ArrayList<>());
+        }
+        int[] lastShape = new int[regions.size()];
+        Arrays.fill(lastShape, -1);
+        var all = getShapes();
+        for (int i = 0; i < all.size(); i++) {
+            var shape = all.get(i);
+            var tiles = tiles(shape);
+            if (tiles == null)
+                continue;
+            Path2D outline = null;
+            for (int ty = tiles.y; ty < tiles.y + tiles.height; ty++)
+                for (int tx = tiles.x; tx < tiles.x + tiles.width; tx++) {
+                    int r = regionAt[ty * tilesX + tx];
+                    if (r < 0 || lastShape[r] == i)
+                        continue;
+                    lastShape[r] = i;
+                    if (outline == null)
+                        outline = shape.outline(Circle.DEFAULT_TOLERANCE);
+                    shapes.get(r).add(shape);
+                    outlines.get(r).add(outline);
+                }
+        }
+
+        var profile = world.renderProfile;
+        for (int r = 0; r < regions.size(); r++) {
+            var region = regions.get(r);
+            var image = profile.createGround(region.width, region.height, world.backgroundColor);
+            Graphics2D g = createGraphics(image, profile, world.backgroundColor);
+            g.translate(-region.x, -region.y);
+            // The same placement World uses for turtle coordinates
+            g.transform(new AffineTransform(1, 0, 0, -1, width / 2, height / 2));
+            var toPixels = g.getTransform();
+            var pixels = profile.createRasterizer(image);
+            for (int i = 0; i < shapes.get(r).size(); i++)
+                render(g, pixels, toPixels, shapes.get(r).get(i), outlines.get(r).get(i));
+            g.dispose();
+            world.replacePaths(image, region.x, region.y);
+        }
+    }
+
+    private void renderPass(Pass pass, int drawing) {
+        var profile = pass.profile == null ? world.renderProfile : pass.profile;
+        var image = render(profile, world.backgroundColor, pass.scale, pass.tolerance, drawing);
+        if (image != null)
+            world.replacePaths(image);
+    }
+
+    /**
+     * Draws this painting onto a new image, without animating the turtle or needing a World.
+     * This operation is synchronous.
+     *
+     * @param profile    The profile to draw with, which also picks the image type
+     * @param background The color of the image where nothing is drawn
+     * @param scale      The size of the image relative to this painting's size
+     * @return The image
+     */
+    public BufferedImage render(RenderProfile profile, Color background, double scale) {
+        return render(profile, background, scale, 0.25, -1);
+    }
+
+    /**
+     * Draws this painting onto several new images at different sizes at once, such as a thumbnail and a print.
+     * The shapes are traced once, and each trace is shared by every image it is fine enough for,
+     * so only curves are traced again for bigger images. The images are then drawn in parallel.
+     * This operation is synchronous.
+     *
+     * @param profile    The profile to draw with, which also picks the image type
+     * @param background The color of the images where nothing is drawn
+     * @param scales     The size of each image relative to this painting's size
+     * @return The images, in the same order as the scales
+     * @throws InterruptedException if interrupted while waiting for the images
+     */
+    public List<BufferedImage> render(RenderProfile profile, Color background, double... scales)
+        throws InterruptedException {
+        var shapes = getShapes();
+        // outlines[k][i] is shape i traced for scale k
+        var outlines = new Path2D[scales.length][shapes.size()];
+        for (int i = 0; i < shapes.size(); i++) {
+            var shape = shapes.get(i);
+            if (!(shape instanceof Circle circle)) {
+                // straight edges trace the same way at every scale
+                var outline = shape.outline();
+                for (Path2D[] traced : outlines)
+                    traced[i] = outline;
+                continue;
+            }
+            int[] segments = new int[scales.length];
+            for (int k = 0; k < scales.length; k++) {
+                // tolerance is in image pixels, each of which covers 1 / scale painting pixels
+                double tolerance = Circle.DEFAULT_TOLERANCE / scales[k];
+                segments[k] = Circle.segments(circle.radius, circle.strokeWidth, tolerance);
+                for (int j = 0; j < k && outlines[k][i] == null; j++)
+                    if (segments[j] == segments[k])
+                        outlines[k][i] = outlines[j][i];
+                if (outlines[k][i] == null)
+                    outlines[k][i] = circle.outline(tolerance);
+            }
+        }
+
+        var executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(scales.length, Runtime.getRuntime().availableProcessors())), r -> {
+                var thread = new Thread(r, "painting-render");
+                thread.setDaemon(true);
+                return thread;
+            });
+        try {
+            var futures = new ArrayList<Future<BufferedImage>>(scales.length);
+            for (int k = 0; k < scales.length; k++) {
+                double scale = scales[k];
+                var traced = outlines[k];
+                futures.add(executor.submit(() -> render(profile, background, scale, shapes, traced)));
+            }
+            var images = new ArrayList<BufferedImage>(scales.length);
+            for (var future : futures)
+                images.add(future.get());
+            return images;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re)
+                throw re;
+            if (e.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param outlines The outline of each shape, traced finely enough for the scale
+     */
+    private BufferedImage render(RenderProfile profile, Color background, double scale,
+                                 List<Shape<?>> shapes, Path2D[] outlines) {
+        var image = createImage(profile, background, scale);
+        Graphics2D g = createGraphics(image, profile, background);
+        g.scale(scale, scale);
+        // The same placement World uses for turtle coordinates
+        g.transform(new AffineTransform(1, 0, 0, -1, width / 2, height / 2));
+        var toPixels = g.getTransform();
+        var pixels = profile.createRasterizer(image);
+        for (int i = 0; i < outlines.length; i++)
+            render(g, pixels, toPixels, shapes.get(i), outlines[i]);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * @param tolerance How far in image pixels curves may stray from their true shape
+     * @param drawing   The generation this render belongs to, or -1 if it can't be superseded
+     * @return The image, or null if a newer redraw started before this one finished
+     */
+    private BufferedImage render(RenderProfile profile, Color background, double scale, double tolerance, int drawing) {
+        var image = createImage(profile, background, scale);
+        Graphics2D g = createGraphics(image, profile, background);
+        g.scale(scale, scale);
+        // tolerance is in image pixels, each of which covers 1 / scale painting pixels
+        boolean current = render(g, profile.createRasterizer(image), tolerance / scale, drawing);
+        g.dispose();
+        return current ? image : null;
+    }
+
+    private BufferedImage createImage(RenderProfile profile, Color background, double scale) {
+        return profile.createGround(
+            Math.max(1, (int) Math.ceil(width * scale)), Math.max(1, (int) Math.ceil(height * scale)), background);
+    }
+
+    /**
+     * @return Graphics for drawing on the image with the profile's hints, having cleared it to the background
+     */
+    private static Graphics2D createGraphics(BufferedImage image, RenderProfile profile, Color background) {
+        Graphics2D g = image.createGraphics();
+        profile.applyHints(g);
+        g.setBackground(background);
+        g.clearRect(0, 0, image.getWidth(), image.getHeight());
+        return g;
+    }
+
+    /**
+     * Draws this painting straight onto a raster, without animating the turtle.
+     * Unlike {@link #draw()}, this works for paintings too big to show in a World.
+     * This operation is synchronous.
+     *
+     * @param raster The raster to draw on, usually the same size as this painting
+     */
+    public void render(TiledRaster raster) {
+        // The same placement World uses for turtle coordinates
+        var toPixels = new AffineTransform(1, 0, 0, -1, width / 2, height / 2);
+        for (Shape<?> shape : getShapes()) {
+            var outline = toPixels.createTransformedShape(shape.outline());
+            if (shape.fillColor != null)
+                raster.fill(outline, shape.fillColor);
+            raster.draw(
+                outline,
+                new BasicStroke((float) shape.strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND),
+                shape.color);
+        }
+    }
+
     /**
      * Adds a shape to this painting and draws it.
      *
      * @param shape The shape to add
+     * @throws IllegalArgumentException if a shape with the same id is already in this painting
      */
-    public void add(Shape<?> shape) {
-        var cshape = shape.copy();
-        shapeList.add(cshape);
+    public synchronized void add(Shape<?> shape) {
+        var node = new Node(shape);
+        link(node, head.prev);
+        var edit = record(new Edit(node, null, shape));
 
         if (thread == null) draw();
-        else queue.put(Optional.of(cshape));
+        else {
+            queue.put(Optional.of(shape));
+            queue.put(Optional.of(new Checkpoint(edit)));
+        }
+    }
+
+    /**
+     * Replaces this painting's shapes with a newer revision of them, such as one loaded from a file.
+     * Only the parts of the canvas the differences cover are redrawn,
+     * so the cost of showing a revision grows with the size of the change rather than the painting.
+     * The undo history is cleared, since its edits no longer lead to this revision.
+     *
+     * @param revision The shapes making up the painting, in drawing order
+     * @return The differences between the old shapes and the new ones
+     * @throws IllegalArgumentException if two shapes have the same id
+     * @throws NullPointerException     if a shape is null
+     */
+    public synchronized PaintingDiff update(List<? extends Shape<?>> revision) {
+        // everything which can fail is done before the shape list is touched, so a bad revision changes nothing
+        for (Shape<?> shape : revision)
+            Objects.requireNonNull(shape, "A revision can't hold null shapes");
+        var diff = PaintingDiff.between(getShapes(), revision);
+        if (diff.isEmpty())
+            return diff;
+        var regions = thread == null ? null : regions(diff);
+
+        // the node holding each changed shape, found by its old id in case its id changed
+        var renamed = new HashMap<Long, Node>();
+        for (var change : diff.changed())
+            if (change.before().id != change.after().id)
+                renamed.put(change.after().id, index.get(change.before().id));
+        for (Shape<?> shape : diff.removed())
+            unlink(index.get(shape.id));
+        Node prev = head;
+        for (Shape<?> shape : revision) {
+            var node = renamed.containsKey(shape.id) ? renamed.get(shape.id) : index.get(shape.id);
+            if (node == null) {
+                node = new Node(shape);
+                link(node, prev);
+            } else {
+                if (node.prev != prev) {
+                    unlink(node);
+                    link(node, prev);
+                }
+                if (node.shape != shape)
+                    setShape(node, shape);
+            }
+            prev = node;
+        }
+        undoStack.clear();
+        redoStack.clear();
+        base.raster = null;
+
+        if (thread == null)
+            draw();
+        else {
+            queue.put(Optional.of(t -> renderRegions(regions)));
+            queue.put(Optional.of(new Checkpoint(base)));
+        }
+        return diff;
+    }
+
+    /**
+     * Finds a shape in this painting.
+     *
+     * @param id The id of the shape
+     * @return The shape, or null if it isn't in this painting
+     */
+    public synchronized Shape<?> get(long id) {
+        var node = index.get(id);
+        return node == null ? null : node.shape;
+    }
+
+    /**
+     * Replaces a shape in this painting, keeping its place in the drawing order,
+     * and redraws the parts of the canvas either shape covers.
+     *
+     * @param id    The id of the shape to replace
+     * @param shape The shape to put in its place
+     * @return true if the shape was replaced, false if it isn't in this painting
+     * @throws IllegalArgumentException if a different shape with the new shape's id is already in this painting
+     */
+    public synchronized boolean replace(long id, Shape<?> shape) {
+        var node = index.get(id);
+        if (node == null)
+            return false;
+        var old = node.shape;
+        setShape(node, shape);
+        var edit = record(new Edit(node, old, shape));
+
+        if (thread == null)
+            draw();
+        else {
+            var regions = regions(List.of(old, shape));
+            queue.put(Optional.of(t -> renderRegions(regions)));
+            queue.put(Optional.of(new Checkpoint(edit)));
+        }
+        return true;
     }
 
     /**
      * Removes a shape from this painting and redraws it.
      *
      * @param index The index of the item to remove
+     * @throws IndexOutOfBoundsException if there is no item at that index
+     */
+    public synchronized void remove(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index $index out of bounds for length $size");
+        // walk from whichever end is nearer
+        Node node;
+        if (index < size / 2) {
+            node = head.next;
+            for (int i = 0; i < index; i++)
+                node = node.next;
+        } else {
+            node = head.prev;
+            for (int i = size - 1; i > index; i--)
+                node = node.prev;
+        }
+        remove(node);
+    }
+
+    /**
+     * Removes a shape from this painting and redraws it.
+     *
+     * @param id The id of the shape to remove
+     * @return true if the shape was removed, false if it isn't in this painting
      */
-    public void remove(int index) {
-        var removed = shapeList.remove(index);
+    public synchronized boolean remove(long id) {
+        var node = index.get(id);
+        if (node == null)
+            return false;
+        remove(node);
+        return true;
+    }
+
+    private void remove(Node node) {
+        var removed = node.shape;
+        unlink(node);
+        var edit = record(new Edit(node, removed, null));
 
-        if (thread == null || !queue.removeIf(op -> op.isPresent() && op.get().UUID == removed.UUID))
+        if (thread == null)
             draw();
+        else if (queue.removeIf(op -> op.isPresent() && op.get() instanceof Shape<?> s && s.id == removed.id)) {
+            // The checkpoints still queued were meant to include the removed shape
+            queue.removeIf(op -> op.isPresent() && op.get() instanceof Checkpoint);
+            queue.put(Optional.of(new Checkpoint(edit)));
+        } else {
+            var regions = regions(List.of(removed));
+            queue.put(Optional.of(t -> renderRegions(regions)));
+            queue.put(Optional.of(new Checkpoint(edit)));
+        }
+    }
+
+    /**
+     * Reverts the most recent edit to this painting.
+     * If the canvas was checkpointed after the edit before it,
+     * only the pixels which changed since then are restored.
+     * Otherwise, the painting is redrawn.
+     *
+     * @return true if there was an edit to undo, false otherwise
+     */
+    public synchronized boolean undo() {
+        if (undoStack.isEmpty())
+            return false;
+        var edit = undoStack.pop();
+        // Edits are undone in reverse order, so each node's old neighbours are its neighbours again
+        if (edit.after == null)
+            link(edit.node, edit.node.prev);
+        else if (edit.before == null)
+            unlink(edit.node);
+        else
+            setShape(edit.node, edit.before);
+        redoStack.push(edit);
+        show(current());
+        return true;
+    }
+
+    /**
+     * Reapplies the most recently undone edit to this painting.
+     *
+     * @return true if there was an edit to redo, false otherwise
+     * @see #undo()
+     */
+    public synchronized boolean redo() {
+        if (redoStack.isEmpty())
+            return false;
+        var edit = redoStack.pop();
+        if (edit.before == null)
+            link(edit.node, edit.node.prev);
+        else if (edit.after == null)
+            unlink(edit.node);
+        else
+            setShape(edit.node, edit.after);
+        undoStack.push(edit);
+        show(edit);
+        return true;
     }
 
     /**
      * Stops the render thread drawing this painting.
      */
-    public void stop() {
+    public synchronized void stop() {
         if (thread == null)
             return;
         queue.clear();
@@ -126,10 +714,135 @@ public final class Painting {
     }
 
     /**
-     * @return An unmodifiable view of the shapes composing this painting
+     * @return The number of shapes composing this painting
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return An unmodifiable copy of the shapes composing this painting, in drawing order
+     */
+    public synchronized List<Shape<?>> getShapes() {
+        if (snapshot == null) {
+            var shapes = new ArrayList<Shape<?>>(size);
+            for (Node node = head.next; node != head; node = node.next)
+                shapes.add(node.shape);
+            snapshot = Collections.unmodifiableList(shapes);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Hashes everything about this painting which is saved: its size and its shapes in drawing order.
+     * Paintings with the same hash can be taken to look the same.
+     *
+     * @return The first 64 bits of a SHA-256 digest of this painting's size and its shapes as {@link ShapeCodec} writes them
      */
-    public List<Shape<?>> getShapes() {
-        return Collections.unmodifiableList(shapeList);
+    public synchronized long contentHash() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (var out = new DataOutputStream(new BufferedOutputStream(
+            new DigestOutputStream(OutputStream.nullOutputStream(), digest)))) {
+            out.writeInt(width);
+            out.writeInt(height);
+            ShapeCodec.write(out, getShapes());
+        } catch (IOException e) {
+            // nothing is written anywhere
+            throw new UncheckedIOException(e);
+        }
+        long hash = 0;
+        for (byte b : Arrays.copyOf(digest.digest(), Long.BYTES))
+            hash = hash << 8 | b & 0xFF;
+        return hash;
+    }
+
+    /**
+     * Starts notifying a listener of changes to this painting's shapes.
+     *
+     * @param listener The listener to notify
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops notifying a listener of changes to this painting's shapes.
+     *
+     * @param listener The listener to stop notifying
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void link(Node node, Node after) {
+        if (index.putIfAbsent(node.shape.id, node) != null)
+            throw new IllegalArgumentException("A shape with id ${node.shape.id} is already in this painting");
+        node.prev = after;
+        node.next = after.next;
+        after.next.prev = node;
+        after.next = node;
+        size++;
+        snapshot = null;
+        for (Listener listener : listeners)
+            listener.added(node.shape, after == head ? null : after.shape);
+    }
+
+    private void unlink(Node node) {
+        // node keeps pointing at its neighbours so undo can put it back
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        index.remove(node.shape.id);
+        size--;
+        snapshot = null;
+        for (Listener listener : listeners)
+            listener.removed(node.shape);
+    }
+
+    private void setShape(Node node, Shape<?> shape) {
+        if (shape.id != node.shape.id) {
+            if (index.containsKey(shape.id))
+                throw new IllegalArgumentException("A shape with id ${shape.id} is already in this painting");
+            index.remove(node.shape.id);
+            index.put(shape.id, node);
+        }
+        var old = node.shape;
+        node.shape = shape;
+        snapshot = null;
+        for (Listener listener : listeners)
+            listener.replaced(old, shape);
+    }
+
+    private Edit record(Edit edit) {
+        redoStack.clear();
+        undoStack.push(edit);
+        if (undoStack.size() > HISTORY_LIMIT)
+            // undoing everything now stops after the evicted edit, so its snapshot is the base's;
+            // if that hasn't been taken yet, undoing to the base redraws instead
+            base.raster = undoStack.removeLast().raster;
+        return edit;
+    }
+
+    private Edit current() {
+        return undoStack.isEmpty() ? base : undoStack.peek();
+    }
+
+    private void show(Edit state) {
+        generation++;
+        var raster = state.raster;
+        if (thread == null || raster == null) {
+            draw();
+            return;
+        }
+        queue.clear();
+        queue.put(Optional.of(t -> {
+            if (!world.restore(raster))
+                draw();
+        }));
     }
 
     private void start() {
@@ -150,14 +863,101 @@ public final class Painting {
                     turtle.goTo(width + 100, height + 100);
                     command = queue.take();
                 }
-                if (command.isPresent())
-                    command.get().draw(turtle);
-                else
-                    world.resizeWorld(width, height);
+                try {
+                    if (command.isPresent())
+                        command.get().draw(turtle);
+                    else
+                        world.resizeWorld(width, height);
+                } catch (RuntimeException e) {
+                    // one bad command mustn't stop every later draw of the painting
+                    System.err.println("Error drawing painting: " + e);
+                }
             }
         } catch (InterruptedException ignored) {
             turtle.penUp();
             turtle.goTo(width + 100, height + 100);
         }
     }
+
+    /**
+     * Notified of every change to a painting's shapes, including undoing and redoing edits.
+     * Listeners are called while the painting is locked, so they should return quickly.
+     */
+    public interface Listener {
+        /**
+         * @param shape The shape which was inserted
+         * @param after The shape it was inserted after, or null if it is now the first shape
+         */
+        void added(Shape<?> shape, Shape<?> after);
+
+        /**
+         * @param shape The shape which was removed
+         */
+        void removed(Shape<?> shape);
+
+        /**
+         * @param before The shape which was replaced
+         * @param after  The shape which took its place
+         */
+        void replaced(Shape<?> before, Shape<?> after);
+    }
+
+    /**
+     * One pass of a progressive draw.
+     *
+     * @param scale     The resolution to render at, relative to the painting's size
+     * @param profile   The profile to render with, or null to use the world's
+     * @param tolerance How far in image pixels curves may stray from their true shape
+     */
+    private record Pass(double scale, RenderProfile profile, double tolerance) {
+    }
+
+    /**
+     * A place in the shape list.
+     */
+    private static final class Node {
+        Shape<?> shape;
+        Node prev;
+        Node next;
+
+        Node(Shape<?> shape) {
+            this.shape = shape;
+        }
+    }
+
+    /**
+     * A change to the shape list which can be undone.
+     * {@code before} is null for additions and {@code after} is null for removals.
+     */
+    private static final class Edit {
+        final Node node;
+        final Shape<?> before;
+        final Shape<?> after;
+        /**
+         * A snapshot of the canvas with this edit applied, or null if none has been taken.
+         */
+        volatile RasterCheckpoint raster;
+
+        Edit(Node node, Shape<?> before, Shape<?> after) {
+            this.node = node;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /**
+     * Snapshots the canvas once everything queued before it has been drawn.
+     */
+    private final class Checkpoint implements TurtleDrawable {
+        private final Edit edit;
+
+        Checkpoint(Edit edit) {
+            this.edit = edit;
+        }
+
+        @Override
+        public void draw(Turtle turtle) {
+            edit.raster = world.checkpoint();
+        }
+    }
 }
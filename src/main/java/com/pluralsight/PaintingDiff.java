@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight;
+
+import com.pluralsight.shapes.*;
+
+import java.awt.Color;
+import java.util.*;
+
+/**
+ * The differences between two revisions of a painting's shape list.
+ * <p>
+ * Shapes are matched by id first. Shapes left over on both sides are then matched by content,
+ * so a revision whose shapes were recreated with new ids, such as one saved by another editor,
+ * only differs where the shapes really do.
+ *
+ * @param added   The shapes only in the newer revision
+ * @param removed The shapes only in the older revision
+ * @param changed The shapes in both whose content, id or place in the drawing order changed
+ */
+public record PaintingDiff(List<Shape<?>> added, List<Shape<?>> removed, List<Change> changed) {
+    /**
+     * Compares two revisions of a shape list.
+     *
+     * @param before The older revision, in drawing order
+     * @param after  The newer revision, in drawing order
+     * @return The differences
+     * @throws IllegalArgumentException if a revision holds two shapes with the same id
+     */
+    public static PaintingDiff between(List<? extends Shape<?>> before, List<? extends Shape<?>> after) {
+        var beforeIndex = new HashMap<Long, Integer>(2 * before.size());
+        for (int i = 0; i < before.size(); i++)
+            if (beforeIndex.put(before.get(i).id, i) != null)
+                throw new IllegalArgumentException("Two shapes have id ${before.get(i).id}");
+        var afterIds = new HashSet<Long>(2 * after.size());
+        for (Shape<?> shape : after)
+            if (!afterIds.add(shape.id))
+                throw new IllegalArgumentException("Two shapes have id ${shape.id}");
+
+        // the index in before of each shape in after, or -1 if it is new
+        int[] match = new int[after.size()];
+        var unmatched = new HashMap<Content, Deque<Integer>>();
+        for (int i = 0; i < before.size(); i++)
+            if (!afterIds.contains(before.get(i).id))
+                unmatched.computeIfAbsent(Content.of(before.get(i)), k -> new ArrayDeque<>()).add(i);
+        boolean[] kept = new boolean[before.size()];
+        for (int i = 0; i < after.size(); i++) {
+            Integer j = beforeIndex.get(after.get(i).id);
+            if (j == null) {
+                var candidates = unmatched.get(Content.of(after.get(i)));
+                j = candidates == null || candidates.isEmpty() ? null : candidates.poll();
+            }
+            match[i] = j == null ? -1 : j;
+            if (j != null)
+                kept[j] = true;
+        }
+
+        var added = new ArrayList<Shape<?>>();
+        var changed = new ArrayList<Change>();
+        boolean[] moved = moved(match);
+        for (int i = 0; i < after.size(); i++) {
+            Shape<?> shape = after.get(i);
+            if (match[i] < 0) {
+                added.add(shape);
+                continue;
+            }
+            Shape<?> old = before.get(match[i]);
+            if (old == shape && !moved[i])
+                continue;
+            boolean looksDifferent = moved[i] || !Content.of(old).equals(Content.of(shape));
+            if (looksDifferent || old.id != shape.id)
+                changed.add(new Change(old, shape, looksDifferent));
+        }
+        var removed = new ArrayList<Shape<?>>();
+        for (int i = 0; i < before.size(); i++)
+            if (!kept[i])
+                removed.add(before.get(i));
+        return new PaintingDiff(
+            Collections.unmodifiableList(added), Collections.unmodifiableList(removed), Collections.unmodifiableList(changed));
+    }
+
+    /**
+     * Finds the fewest shapes which must have moved in the drawing order for the rest to keep their order,
+     * by finding the longest run of shapes whose old places are in increasing order.
+     * Moving a shape can change which of two overlapping shapes is on top.
+     *
+     * @param match The old place of each shape, or -1 for new shapes
+     * @return Whether each shape moved
+     */
+    private static boolean[] moved(int[] match) {
+        // tails[k] is the shape ending the lowest increasing run of length k + 1 found so far
+        int[] tails = new int[match.length];
+        int[] previous = new int[match.length];
+        int length = 0;
+        for (int i = 0; i < match.length; i++) {
+            if (match[i] < 0)
+                continue;
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (match[tails[mid]] < match[i])
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length)
+                length++;
+        }
+        boolean[] moved = new boolean[match.length];
+        for (int i = 0; i < match.length; i++)
+            moved[i] = match[i] >= 0;
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i])
+            moved[i] = false;
+        return moved;
+    }
+
+    /**
+     * @return true if the revisions draw the same shapes in the same order
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * @return The number of shapes added, removed or changed
+     */
+    public int size() {
+        return added.size() + removed.size() + changed.size();
+    }
+
+    /**
+     * A shape in both revisions which differs between them.
+     *
+     * @param before         The shape in the older revision
+     * @param after          The shape in the newer revision
+     * @param looksDifferent false if only the shape's id changed, so the revisions look the same where it is
+     */
+    public record Change(Shape<?> before, Shape<?> after, boolean looksDifferent) {
+    }
+
+    /**
+     * Everything about a shape which affects how it is drawn.
+     */
+    private record Content(Class<?> type, Color color, Color fillColor, double strokeWidth,
+                           double originX, double originY, double a, double b, double c) {
+        static Content of(Shape<?> shape) {
+            if (shape instanceof Circle circle)
+                return new Content(shape, circle.radius, 0, 0);
+            if (shape instanceof Rect rect)
+                return new Content(shape, rect.width, rect.height, 0);
+            if (shape instanceof RegularPolygon polygon)
+                return new Content(shape, polygon.numSides, polygon.angle, polygon.radius);
+            throw new IllegalArgumentException("Unknown shape type ${shape.getClass().getName()}");
+        }
+
+        Content(Shape<?> shape, double a, double b, double c) {
+            this(shape.getClass(), shape.color, shape.fillColor, shape.strokeWidth, shape.originX, shape.originY, a, b, c);
+        }
+    }
+}
@@ -0,0 +1,597 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight;
+
+import com.pluralsight.shapes.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Saves a painting incrementally.
+ * <p>
+ * A painting is stored as a base snapshot plus a journal beside it ({@code <file>.journal})
+ * of every edit made since the snapshot was written.
+ * Edits are appended to the journal as they happen, so saving costs as much as the edits
+ * since the last save rather than the whole painting.
+ * The journal is synced to disk in batches, and folded back into the snapshot in the background once it grows long.
+ * If the program stops before it is closed, {@link #read(File)} replays whatever part of the journal reached the disk.
+ * <p>
+ * Shapes are stored with {@link ShapeCodec}, and the snapshot may also be deflated.
+ * Snapshots written with Java serialization by older versions can still be read by {@link #read(File)},
+ * but never by the {@code readCompact} methods, which are for input from someone who isn't trusted.
+ * <p>
+ * Usage example:
+ * <pre>
+ * var saved = PaintingJournal.read(file);
+ * var painting = new Painting(saved.width(), saved.height(), saved.shapes(), world, turtle);
+ * try (var journal = PaintingJournal.open(file, painting)) {
+ *     painting.add(new Circle());
+ *     journal.sync();
+ * }
+ * </pre>
+ */
+public final class PaintingJournal implements Closeable, Painting.Listener {
+    /// "TURT"
+    private static final int MAGIC = 0x54555254;
+    private static final int VERSION = 1;
+    private static final int COMPRESSED = 1;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REPLACE = 3;
+    /// the size of each record's length and checksum
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final long SYNC_INTERVAL_MS = 250;
+    /// pending bytes beyond this many are written without waiting for the next batch
+    private static final int MAX_PENDING_BYTES = 1 << 20;
+    private static final int COMPACT_THRESHOLD = 1000;
+    private final Path base;
+    private final Path journal;
+    private final Painting painting;
+    private final boolean compress;
+    private final ScheduledExecutorService executor;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel channel;
+    /// the sequence number of the last record appended
+    private long seq;
+    private int sinceCompaction;
+    private boolean compacting;
+    /// a failure on the background thread, reported by the next call to sync
+    private IOException failure;
+
+    private PaintingJournal(Path base, Painting painting, boolean compress, long seq) throws IOException {
+        this.base = base;
+        this.journal = journalPath(base);
+        this.painting = painting;
+        this.compress = compress;
+        this.seq = seq;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "painting-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        synchronized (painting) {
+            // The snapshot covers every record already in the journal, so they can be dropped
+            writeBase(painting.getShapes(), seq);
+            channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            channel.force(true);
+            painting.addListener(this);
+        }
+        executor.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts journaling a painting to a file, deflating its snapshots.
+     * The painting's current shapes are written as the new snapshot,
+     * replacing anything already saved in the file.
+     *
+     * @param file     The file to save to
+     * @param painting The painting to save
+     * @return A journal which records every later edit to the painting
+     * @throws IOException if the file couldn't be written
+     */
+    public static PaintingJournal open(File file, Painting painting) throws IOException {
+        return open(file, painting, true);
+    }
+
+    /**
+     * Starts journaling a painting to a file.
+     * The painting's current shapes are written as the new snapshot,
+     * replacing anything already saved in the file.
+     *
+     * @param file     The file to save to
+     * @param painting The painting to save
+     * @param compress Whether to deflate snapshots, making them smaller but slower to write
+     * @return A journal which records every later edit to the painting
+     * @throws IOException if the file couldn't be written
+     */
+    public static PaintingJournal open(File file, Painting painting, boolean compress) throws IOException {
+        // Continue the old journal's numbering so a crash part way through opening can't replay its records twice
+        long seq = 0;
+        var journal = journalPath(file.toPath());
+        if (Files.exists(journal))
+            for (Record record : records(Files.readAllBytes(journal)))
+                seq = record.seq;
+        return new PaintingJournal(file.toPath(), painting, compress, seq);
+    }
+
+    /**
+     * Reads a saved painting, replaying any edits journaled since its snapshot was written.
+     *
+     * @param file The file the painting was saved to
+     * @return The saved painting's size and shapes
+     * @throws IOException if the file couldn't be read or isn't a painting
+     */
+    public static Saved read(File file) throws IOException {
+        return read(file, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Reads a saved painting from a file named by someone who isn't trusted,
+     * replaying any edits journaled since its snapshot was written.
+     * Only the compact format is accepted, never Java serialization.
+     *
+     * @param file     The file the painting was saved to
+     * @param maxBytes The most bytes the snapshot may hold once inflated, and the journal beside it
+     * @return The saved painting's size and shapes
+     * @throws IOException if the file couldn't be read, isn't a compact painting or is too large
+     */
+    public static Saved readCompact(File file, long maxBytes) throws IOException {
+        return read(file, maxBytes, false);
+    }
+
+    /**
+     * Reads a painting's snapshot sent by someone who isn't trusted, such as a painting file posted over a network.
+     * Only the compact format is accepted, never Java serialization.
+     * Edits journaled beside the file aren't included.
+     * The stream is not closed.
+     *
+     * @param in       The snapshot's bytes
+     * @param maxBytes The most bytes the snapshot may hold, both as sent and once inflated
+     * @return The saved painting's size and shapes
+     * @throws IOException if the stream couldn't be read, isn't a compact painting or is too large
+     */
+    public static Saved readCompact(InputStream in, long maxBytes) throws IOException {
+        return readSnapshot(in, maxBytes, false).saved();
+    }
+
+    /**
+     * @param serialized Whether to accept snapshots written with Java serialization
+     */
+    private static Saved read(File file, long maxBytes, boolean serialized) throws IOException {
+        Snapshot snapshot;
+        try (var in = new FileInputStream(file)) {
+            snapshot = readSnapshot(in, maxBytes, serialized);
+        }
+        var saved = snapshot.saved();
+        var journal = journalPath(file.toPath());
+        if (!Files.exists(journal))
+            return saved;
+        if (Files.size(journal) > maxBytes)
+            throw new IOException("The journal is larger than $maxBytes bytes");
+
+        var replay = new Replay(saved.shapes());
+        for (Record record : records(Files.readAllBytes(journal)))
+            if (record.seq > snapshot.seq())
+                replay.apply(record);
+        return new Saved(saved.width(), saved.height(), replay.shapes());
+    }
+
+    private static Snapshot readSnapshot(InputStream stream, long maxBytes, boolean serialized) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(new LimitedInputStream(stream, maxBytes)));
+        try {
+            in.mark(Integer.BYTES);
+            if (in.readInt() == MAGIC) {
+                if (in.readUnsignedByte() != VERSION)
+                    throw new InvalidObjectException("Unsupported painting version");
+                boolean compressed = (in.readUnsignedByte() & COMPRESSED) != 0;
+                if (!compressed)
+                    return readBody(in);
+                var inflater = new Inflater();
+                try {
+                    // a small snapshot may inflate to a huge one, so the limit applies again after inflating
+                    return readBody(new DataInputStream(new BufferedInputStream(
+                        new LimitedInputStream(new InflaterInputStream(in, inflater), maxBytes))));
+                } finally {
+                    inflater.end();
+                }
+            }
+            if (!serialized)
+                throw new StreamCorruptedException("Not a compact painting");
+            in.reset();
+            var os = new ObjectInputStream(in);
+            int width = os.readInt();
+            int height = os.readInt();
+            return new Snapshot(new Saved(width, height, toShapes(os.readObject())), 0);
+        } catch (ClassNotFoundException e) {
+            throw new InvalidObjectException("Not a painting: " + e.getMessage());
+        }
+    }
+
+    private static Snapshot readBody(DataInputStream body) throws IOException {
+        int width = body.readInt();
+        int height = body.readInt();
+        long seq = body.readLong();
+        return new Snapshot(new Saved(width, height, ShapeCodec.read(body)), seq);
+    }
+
+    /**
+     * Writes every edit made so far to disk.
+     *
+     * @throws IOException if the journal couldn't be written
+     */
+    public synchronized void sync() throws IOException {
+        if (failure != null) {
+            var e = failure;
+            failure = null;
+            throw e;
+        }
+        if (channel == null)
+            throw new ClosedChannelException();
+        writePending();
+    }
+
+    /**
+     * Stops journaling the painting, writing any edits not yet on disk.
+     */
+    @Override
+    public void close() throws IOException {
+        painting.removeListener(this);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (channel == null)
+                return;
+            try {
+                sync();
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    @Override
+    public void added(Shape<?> shape, Shape<?> after) {
+        append(ADD, shape.id, after, shape);
+    }
+
+    @Override
+    public void removed(Shape<?> shape) {
+        append(REMOVE, shape.id, null, null);
+    }
+
+    @Override
+    public void replaced(Shape<?> before, Shape<?> after) {
+        append(REPLACE, before.id, null, after);
+    }
+
+    private synchronized void append(byte op, long id, Shape<?> after, Shape<?> shape) {
+        if (executor.isShutdown())
+            return;
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeLong(++seq);
+            out.writeByte(op);
+            out.writeLong(id);
+            if (op == ADD) {
+                out.writeBoolean(after != null);
+                out.writeLong(after == null ? 0 : after.id);
+            }
+            if (shape != null)
+                ShapeCodec.writeShape(out, shape);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal an edit", e);
+        }
+        byte[] payload = bytes.toByteArray();
+        var crc = new CRC32();
+        crc.update(payload);
+        pending.writeBytes(ByteBuffer.allocate(HEADER_BYTES).putInt(payload.length).putInt((int) crc.getValue()).array());
+        pending.writeBytes(payload);
+
+        if (pending.size() > MAX_PENDING_BYTES)
+            executor.execute(this::syncQuietly);
+        if (++sinceCompaction >= COMPACT_THRESHOLD && !compacting) {
+            compacting = true;
+            executor.execute(this::compactQuietly);
+        }
+    }
+
+    private synchronized void syncQuietly() {
+        if (channel == null)
+            return;
+        try {
+            writePending();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void writePending() throws IOException {
+        if (pending.size() == 0)
+            return;
+        channel.write(ByteBuffer.wrap(pending.toByteArray()));
+        pending.reset();
+        channel.force(false);
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot.
+     * Only the snapshot is taken while the painting is locked; it is written out afterwards.
+     */
+    private void compact() throws IOException {
+        List<Shape<?>> shapes;
+        long upTo;
+        long cut;
+        synchronized (painting) {
+            synchronized (this) {
+                if (channel == null)
+                    return;
+                shapes = painting.getShapes();
+                upTo = seq;
+                cut = channel.size() + pending.size();
+                sinceCompaction = 0;
+            }
+        }
+
+        writeBase(shapes, upTo);
+
+        synchronized (this) {
+            if (channel == null)
+                return;
+            // Keep only the records appended while the snapshot was being written
+            channel.write(ByteBuffer.wrap(pending.toByteArray()));
+            pending.reset();
+            var next = journal.resolveSibling(journal.getFileName() + ".tmp");
+            try (var out = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+                long end = channel.size();
+                for (long position = cut; position < end; )
+                    position += channel.transferTo(position, end - position, out);
+                out.force(true);
+            }
+            channel.close();
+            Files.move(next, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private void writeBase(List<Shape<?>> shapes, long upTo) throws IOException {
+        var next = base.resolveSibling(base.getFileName() + ".tmp");
+        var deflater = new Deflater(Deflater.BEST_SPEED);
+        try (var fs = new FileOutputStream(next.toFile())) {
+            var header = new DataOutputStream(fs);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeByte(compress ? COMPRESSED : 0);
+            var body = compress ? new DeflaterOutputStream(fs, deflater, 1 << 16) : null;
+            var out = new DataOutputStream(new BufferedOutputStream(body != null ? body : fs, 1 << 16));
+            out.writeInt(painting.width);
+            out.writeInt(painting.height);
+            out.writeLong(upTo);
+            ShapeCodec.write(out, shapes);
+            out.flush();
+            if (body != null)
+                body.finish();
+            fs.getFD().sync();
+        } finally {
+            deflater.end();
+        }
+        Files.move(next, base, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The journal kept beside a painting's snapshot
+     */
+    static Path journalPath(Path base) {
+        return base.resolveSibling(base.getFileName() + ".journal");
+    }
+
+    private static List<Shape<?>> toShapes(Object in) throws InvalidObjectException {
+        if (!(in instanceof List<?> list))
+            throw new InvalidObjectException("Not a list of shapes");
+        List<Shape<?>> shapes = new ArrayList<>(list.size());
+        for (Object e : list) {
+            if (!(e instanceof Shape<?> shape))
+                throw new InvalidObjectException("Not a shape: $e");
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+
+    /**
+     * Parses the records in a journal.
+     * Parsing stops at the first incomplete or corrupt record, which is where a crash cut the journal short.
+     */
+    private static List<Record> records(byte[] bytes) throws IOException {
+        var records = new ArrayList<Record>();
+        var buffer = ByteBuffer.wrap(bytes);
+        var crc = new CRC32();
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+                break;
+            crc.reset();
+            crc.update(bytes, buffer.position(), length);
+            if ((int) crc.getValue() != checksum)
+                break;
+
+            var in = new DataInputStream(new ByteArrayInputStream(bytes, buffer.position(), length));
+            long seq = in.readLong();
+            byte op = in.readByte();
+            long id = in.readLong();
+            boolean first = false;
+            long afterId = 0;
+            if (op == ADD) {
+                first = !in.readBoolean();
+                afterId = in.readLong();
+            }
+            Shape<?> shape = op == REMOVE ? null : ShapeCodec.readShape(in);
+            records.add(new Record(seq, op, id, first, afterId, shape));
+            buffer.position(buffer.position() + length);
+        }
+        return records;
+    }
+
+    /**
+     * A painting's size and shapes as they were saved.
+     *
+     * @param width  The width in pixels
+     * @param height The height in pixels
+     * @param shapes The shapes in drawing order
+     */
+    public record Saved(int width, int height, List<Shape<?>> shapes) {
+    }
+
+    /**
+     * A snapshot as read, with the sequence number of the last journal record it covers.
+     */
+    private record Snapshot(Saved saved, long seq) {
+    }
+
+    private record Record(long seq, byte op, long id, boolean first, long afterId, Shape<?> shape) {
+    }
+
+    /**
+     * Fails once more than a limit of bytes are read through it.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+            remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long bytes) throws IOException {
+            remaining -= bytes;
+            if (remaining < 0)
+                throw new IOException("The painting is larger than $limit bytes");
+        }
+    }
+
+    /**
+     * Applies journal records to a shape list, inserting after a given shape in constant time.
+     */
+    private static final class Replay {
+        private final Node head = new Node(null);
+        private final Map<Long, Node> index = new HashMap<>();
+
+        Replay(List<Shape<?>> shapes) {
+            head.prev = head;
+            head.next = head;
+            for (Shape<?> shape : shapes)
+                insert(shape, head.prev);
+        }
+
+        void apply(Record record) throws InvalidObjectException {
+            switch (record.op) {
+                case ADD -> insert(record.shape, record.first ? head : node(record.afterId));
+                case REMOVE -> {
+                    var node = node(record.id);
+                    node.prev.next = node.next;
+                    node.next.prev = node.prev;
+                    index.remove(record.id);
+                }
+                case REPLACE -> {
+                    var node = node(record.id);
+                    index.remove(record.id);
+                    node.shape = record.shape;
+                    index.put(record.shape.id, node);
+                }
+                default -> throw new InvalidObjectException("Unknown journal operation ${record.op}");
+            }
+        }
+
+        List<Shape<?>> shapes() {
+            var shapes = new ArrayList<Shape<?>>(index.size());
+            for (Node node = head.next; node != head; node = node.next)
+                shapes.add(node.shape);
+            return shapes;
+        }
+
+        private void insert(Shape<?> shape, Node after) {
+            var node = new Node(shape);
+            node.prev = after;
+            node.next = after.next;
+            after.next.prev = node;
+            after.next = node;
+            index.put(shape.id, node);
+        }
+
+        private Node node(long id) throws InvalidObjectException {
+            var node = index.get(id);
+            if (node == null)
+                throw new InvalidObjectException("The journal refers to a missing shape $id");
+            return node;
+        }
+
+        private static final class Node {
+            Shape<?> shape;
+            Node prev;
+            Node next;
+
+            Node(Shape<?> shape) {
+                this.shape = shape;
+            }
+        }
+    }
+}
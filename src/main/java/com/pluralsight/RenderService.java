@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight;
+
+import com.pluralsight.drawing.*;
+import com.sun.net.httpserver.*;
+
+import javax.imageio.*;
+import java.awt.Color;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Renders paintings to PNG images for other processes on the same machine, over HTTP on the loopback interface.
+ * <p>
+ * {@code POST /render} with a painting file as the body, or {@code GET /render?file=PATH} naming one,
+ * responds with the painting as a PNG.
+ * A named file includes the edits journaled beside it; a posted file is only its snapshot.
+ * The optional query parameters are {@code scale}, the size relative to the painting's, 1 by default,
+ * and {@code profile}, one of {@code draft}, {@code balanced} or {@code final}, the default.
+ * <p>
+ * Only paintings in the compact format are read, never ones written with Java serialization,
+ * and none larger than 16 MiB, sent or inflated.
+ * Requests which don't name a loopback host, or which come from a web page, are refused,
+ * since any page in a browser on this machine can reach the service.
+ * <p>
+ * Rendered images are cached by a hash of the painting's size and shapes and the parameters,
+ * so asking again for a painting which hasn't changed only costs reading it.
+ * Only as many images are drawn at once as there are processors, so concurrent requests can't exhaust the heap;
+ * cached images are answered without waiting.
+ * The cache is bounded by the total size of the images, and drops the least recently used first.
+ * Each response says whether it was cached in its {@code X-Cache} header.
+ * <p>
+ * Usage example:
+ * <pre>
+ * curl --data-binary @art.painting -o art.png "http://127.0.0.1:PORT/render?scale=0.5"
+ * </pre>
+ */
+public final class RenderService implements Closeable {
+    /**
+     * The default limit on the total size of cached images, in bytes.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+    /// the most pixels one image may have, so a request can't exhaust the heap
+    private static final long MAX_PIXELS = 1L << 26;
+    /// the most bytes a painting may hold, both as sent and once inflated
+    private static final long MAX_PAINTING_BYTES = 16L << 20;
+    private static final Set<String> LOOPBACK_HOSTS = Set.of("localhost", "127.0.0.1", "[::1]");
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long cacheBytes;
+    /// PNG bytes by painting and parameters, least recently used first
+    private final LinkedHashMap<Key, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    /// a permit for each image which may be drawn at once
+    private final Semaphore renders = new Semaphore(Runtime.getRuntime().availableProcessors());
+    private long cachedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private RenderService(HttpServer server, long cacheBytes) {
+        this.server = server;
+        this.cacheBytes = cacheBytes;
+        executor = Executors.newCachedThreadPool(r -> {
+            var thread = new Thread(r, "render-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/render", this::handle);
+        server.start();
+    }
+
+    /**
+     * Starts serving renders with the default cache size.
+     *
+     * @param port The port to listen on, or 0 for any free port
+     * @return The running service
+     * @throws IOException if the port couldn't be bound
+     */
+    public static RenderService start(int port) throws IOException {
+        return start(port, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Starts serving renders.
+     *
+     * @param port       The port to listen on, or 0 for any free port
+     * @param cacheBytes The limit on the total size of cached images, in bytes
+     * @return The running service
+     * @throws IOException if the port couldn't be bound
+     */
+    public static RenderService start(int port, long cacheBytes) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        return new RenderService(server, cacheBytes);
+    }
+
+    /**
+     * @return The port the service is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The number of renders answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of renders which had to be drawn
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Stops listening, without waiting for requests in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            int status = 200;
+            String contentType = "image/png";
+            byte[] body;
+            try {
+                body = render(exchange);
+            } catch (Refusal e) {
+                status = e.status;
+                body = e.getMessage().getBytes(StandardCharsets.UTF_8);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                status = 404;
+                body = "No such painting: ${e.getMessage()}".getBytes(StandardCharsets.UTF_8);
+            } catch (IOException | IllegalArgumentException e) {
+                status = 400;
+                body = "Couldn't read the painting: ${e.getMessage()}".getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException | Error e) {
+                // including running out of memory on a huge painting; the client still gets an answer
+                status = 500;
+                body = "Couldn't render the painting: $e".getBytes(StandardCharsets.UTF_8);
+            }
+            if (status != 200)
+                contentType = "text/plain; charset=utf-8";
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] render(HttpExchange exchange) throws IOException, Refusal {
+        var headers = exchange.getRequestHeaders();
+        // a web page can send requests to loopback addresses too, directly or through a rebound DNS name
+        if (!isLoopback(headers.getFirst("Host")))
+            throw new Refusal(403, "Only requests to a loopback address are served");
+        if (headers.containsKey("Origin"))
+            throw new Refusal(403, "Requests from web pages aren't served");
+
+        var query = query(exchange.getRequestURI().getRawQuery());
+        PaintingJournal.Saved saved;
+        switch (exchange.getRequestMethod()) {
+            case "POST" -> {
+                var length = headers.getFirst("Content-Length");
+                if (length != null && Long.parseLong(length) > MAX_PAINTING_BYTES)
+                    throw new Refusal(413, "Paintings are limited to $MAX_PAINTING_BYTES bytes");
+                saved = PaintingJournal.readCompact(exchange.getRequestBody(), MAX_PAINTING_BYTES);
+            }
+            case "GET" -> {
+                var file = query.get("file");
+                if (file == null)
+                    throw new IllegalArgumentException("Name a painting file, or post one");
+                saved = PaintingJournal.readCompact(new File(file), MAX_PAINTING_BYTES);
+            }
+            default -> throw new Refusal(405, "Only GET and POST are supported");
+        }
+        if (saved.width() <= 0 || saved.height() <= 0)
+            throw new IllegalArgumentException("A painting can't be ${saved.width()}x${saved.height()}");
+
+        double scale = query.containsKey("scale") ? Double.parseDouble(query.get("scale")) : 1;
+        var profile = RenderProfile.valueOf(query.getOrDefault("profile", "final").toUpperCase(Locale.ROOT));
+        return render(new Painting(saved.width(), saved.height(), saved.shapes(), null, null), profile, scale,
+            exchange.getResponseHeaders());
+    }
+
+    /**
+     * @param host A request's Host header
+     * @return true if it names this machine by a loopback address and this service's port
+     */
+    private boolean isLoopback(String host) {
+        if (host == null)
+            return false;
+        int colon = host.lastIndexOf(':');
+        if (colon > host.lastIndexOf(']')) {
+            if (!host.substring(colon + 1).equals(Integer.toString(getPort())))
+                return false;
+            host = host.substring(0, colon);
+        }
+        return LOOPBACK_HOSTS.contains(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param headers The response headers, which are told whether the image was cached
+     * @return The painting as PNG bytes
+     */
+    private byte[] render(Painting painting, RenderProfile profile, double scale, Headers headers) throws IOException {
+        if (!(scale > 0) || (double) painting.width * painting.height * scale * scale > MAX_PIXELS)
+            throw new IllegalArgumentException("Scale $scale is out of range");
+        var key = new Key(painting.contentHash(), profile, scale);
+        synchronized (cache) {
+            var png = cache.get(key);
+            if (png != null) {
+                hits.incrementAndGet();
+                headers.set("X-Cache", "hit");
+                return png;
+            }
+        }
+
+        // two requests for the same new painting may both draw it; the second simply replaces the first
+        misses.incrementAndGet();
+        headers.set("X-Cache", "miss");
+        byte[] png;
+        try {
+            renders.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to render");
+        }
+        try {
+            var image = painting.render(profile, Color.WHITE, scale);
+            var bytes = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, "png", bytes))
+                throw new IOException("No PNG writer is available");
+            png = bytes.toByteArray();
+        } finally {
+            renders.release();
+        }
+        synchronized (cache) {
+            var old = cache.put(key, png);
+            cachedBytes += png.length - (old == null ? 0 : old.length);
+            // an image too big to cache at all evicts itself last
+            for (var it = cache.values().iterator(); cachedBytes > cacheBytes && it.hasNext(); ) {
+                cachedBytes -= it.next().length;
+                it.remove();
+            }
+        }
+        return png;
+    }
+
+    private static Map<String, String> query(String raw) {
+        var parameters = new HashMap<String, String>();
+        if (raw == null)
+            return parameters;
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0)
+                continue;
+            parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * A request which is refused before reading any painting.
+     */
+    private static final class Refusal extends Exception {
+        final int status;
+
+        Refusal(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * What a cached image was rendered from.
+     */
+    private record Key(long contentHash, RenderProfile profile, double scale) {
+    }
+}
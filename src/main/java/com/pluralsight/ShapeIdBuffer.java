@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight;
+
+import com.pluralsight.shapes.*;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Records which of a painting's shapes is on top at each pixel, so finding the shape under a point
+ * is a single array read rather than a geometric test against every shape.
+ * <p>
+ * Each pixel holds a slot number, or 0 where no shape is drawn, and a table maps slots to shape ids.
+ * Shapes added on top of the painting are drawn into the buffer as they are added.
+ * Any other edit marks the buffer stale, and it is redrawn from the shape list the next time it is read,
+ * so a run of removals or undos costs one redraw.
+ * <p>
+ * Slots are drawn as opaque colors without antialiasing, so a pixel belongs to the topmost shape
+ * whose fill or stroke covers the pixel's center.
+ * A painting with more shapes than there are slots keeps the shapes on top out of the buffer,
+ * and those are tested geometrically before the buffer is read.
+ * All methods are safe to call from any thread.
+ */
+public final class ShapeIdBuffer implements Painting.Listener {
+    /// slots are stored in the color bits of each pixel
+    private static final int MAX_SLOTS = 0xFFFFFF;
+    private final Painting painting;
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final Graphics2D g;
+    /// the id of the shape drawn with each slot; slot 0 means no shape
+    private long[] ids = new long[64];
+    private int slots;
+    /// the shapes drawn after the slots ran out, bottom first
+    private final List<Shape<?>> unslotted = new ArrayList<>();
+    private boolean stale = true;
+    private boolean detached;
+
+    private ShapeIdBuffer(Painting painting) {
+        this.painting = painting;
+        width = painting.width;
+        height = painting.height;
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g.setComposite(AlphaComposite.Src);
+        // The same placement World uses for turtle coordinates
+        g.transform(new AffineTransform(1, 0, 0, -1, width / 2, height / 2));
+    }
+
+    /**
+     * Starts keeping an id buffer for a painting, which is drawn the first time it is read.
+     *
+     * @param painting The painting to track
+     * @return The buffer, which keeps tracking the painting until it is detached
+     */
+    public static ShapeIdBuffer attach(Painting painting) {
+        var buffer = new ShapeIdBuffer(painting);
+        painting.addListener(buffer);
+        return buffer;
+    }
+
+    /**
+     * Stops tracking the painting and frees the buffer's graphics.
+     * The buffer can't be read afterwards.
+     */
+    public void detach() {
+        painting.removeListener(this);
+        synchronized (painting) {
+            if (!detached)
+                g.dispose();
+            detached = true;
+        }
+    }
+
+    /**
+     * Finds the topmost shape drawn at a point.
+     *
+     * @param x The x coordinate, relative to the center of the painting
+     * @param y The y coordinate, relative to the center of the painting with +y up
+     * @return The id of the shape, or -1 if no shape is drawn there
+     * @throws IllegalStateException if the buffer was detached
+     */
+    public long shapeAt(double x, double y) {
+        int px = (int) Math.floor(x + width / 2);
+        int py = (int) Math.floor(height / 2 - y);
+        if (px < 0 || px >= width || py < 0 || py >= height)
+            return -1;
+        // the painting's lock is held while it notifies listeners, so it guards this buffer too
+        synchronized (painting) {
+            if (detached)
+                throw new IllegalStateException("The buffer was detached from its painting");
+            if (stale)
+                redraw();
+            // the shapes without slots are above every shape in the buffer
+            if (!unslotted.isEmpty()) {
+                double cx = px + 0.5 - width / 2;
+                double cy = height / 2 - py - 0.5;
+                for (int i = unslotted.size() - 1; i >= 0; i--)
+                    if (covers(unslotted.get(i), cx, cy))
+                        return unslotted.get(i).id;
+            }
+            int slot = pixels[py * width + px] & MAX_SLOTS;
+            return slot == 0 ? -1 : ids[slot];
+        }
+    }
+
+    /**
+     * Finds the topmost shape drawn at a point.
+     *
+     * @param x The x coordinate, relative to the center of the painting
+     * @param y The y coordinate, relative to the center of the painting with +y up
+     * @return The shape, or null if no shape is drawn there
+     * @throws IllegalStateException if the buffer was detached
+     */
+    public Shape<?> pick(double x, double y) {
+        synchronized (painting) {
+            long id = shapeAt(x, y);
+            return id < 0 ? null : painting.get(id);
+        }
+    }
+
+    @Override
+    public void added(Shape<?> shape, Shape<?> after) {
+        // only a shape put on top of everything drawn so far can be drawn without redrawing
+        long top = !unslotted.isEmpty() ? unslotted.get(unslotted.size() - 1).id : slots == 0 ? -1 : ids[slots];
+        if (stale || detached || (after == null ? slots != 0 : top != after.id))
+            stale = true;
+        else
+            draw(shape);
+    }
+
+    @Override
+    public void removed(Shape<?> shape) {
+        stale = true;
+    }
+
+    @Override
+    public void replaced(Shape<?> before, Shape<?> after) {
+        stale = true;
+    }
+
+    private void redraw() {
+        Arrays.fill(pixels, 0);
+        slots = 0;
+        unslotted.clear();
+        stale = false;
+        for (Shape<?> shape : painting.getShapes())
+            draw(shape);
+    }
+
+    /**
+     * Tests whether a shape covers a point the same way drawing it into the buffer would.
+     */
+    private static boolean covers(Shape<?> shape, double x, double y) {
+        var outline = shape.outline();
+        if (shape.fillColor != null && outline.contains(x, y))
+            return true;
+        var stroke = new BasicStroke((float) shape.strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        return stroke.createStrokedShape(outline).contains(x, y);
+    }
+
+    private void draw(Shape<?> shape) {
+        if (slots == MAX_SLOTS) {
+            if (unslotted.isEmpty())
+                System.err.println("More than $MAX_SLOTS shapes to pick from; picking the ones on top will be slower");
+            unslotted.add(shape);
+            return;
+        }
+        if (++slots == ids.length)
+            ids = Arrays.copyOf(ids, 2 * ids.length);
+        ids[slots] = shape.id;
+        g.setColor(new Color(slots));
+        var outline = shape.outline();
+        if (shape.fillColor != null)
+            g.fill(outline);
+        g.setStroke(new BasicStroke((float) shape.strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.draw(outline);
+    }
+}
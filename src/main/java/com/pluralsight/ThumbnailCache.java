@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight;
+
+import com.pluralsight.drawing.*;
+
+import javax.imageio.*;
+import java.awt.Color;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Keeps a small preview of each saved painting in a sidecar file,
+ * {@code .thumbnails/<file>.thumb} in the painting's directory,
+ * so a directory of paintings can be browsed without reading any of their shapes.
+ * <p>
+ * A sidecar holds the thumbnail as a PNG, a hash of the content it was drawn from,
+ * and the size and modification time of the painting's files when it was drawn.
+ * While those still match, the thumbnail is current and is read without opening the painting.
+ * Otherwise the painting is read and hashed, and only redrawn if its content really changed,
+ * as it doesn't when its journal is folded into its snapshot.
+ * <p>
+ * Thumbnails are read, written and drawn in the background, one painting at a time per processor.
+ */
+public final class ThumbnailCache implements Closeable {
+    /**
+     * The longest side of a thumbnail, in pixels.
+     */
+    public static final int SIZE = 128;
+    /// "TTHM"
+    private static final int MAGIC = 0x5454484D;
+    private static final int VERSION = 1;
+    private static final String DIRECTORY = ".thumbnails";
+    private final ExecutorService executor;
+    private volatile boolean closed;
+
+    public ThumbnailCache() {
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            var thread = new Thread(r, "thumbnail-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param file A painting file
+     * @return The sidecar file its thumbnail is kept in
+     */
+    public static File sidecar(File file) {
+        var path = file.getAbsoluteFile().toPath();
+        return path.resolveSibling(DIRECTORY).resolve(path.getFileName() + ".thumb").toFile();
+    }
+
+    /**
+     * Draws and stores a thumbnail of a painting which was just saved.
+     * The painting's shapes are copied now, so later edits don't reach the thumbnail.
+     *
+     * @param file     The file the painting was saved to
+     * @param painting The painting
+     */
+    public void saved(File file, Painting painting) {
+        var stamp = Stamp.of(file);
+        // rendering headlessly needs no canvas or turtle
+        var copy = new Painting(painting.width, painting.height, painting.getShapes(), null, null);
+        executor.execute(() -> {
+            try {
+                write(file, stamp, copy.contentHash(), draw(copy));
+            } catch (IOException | RuntimeException e) {
+                // a missing thumbnail is drawn again the next time it is asked for
+            }
+        });
+    }
+
+    /**
+     * Finds a painting's thumbnail in the background, drawing it again if the painting changed since.
+     *
+     * @param file     The painting file
+     * @param consumer Given the file and its thumbnail, or null if it isn't a painting; called on a background thread
+     */
+    public void request(File file, BiConsumer<File, BufferedImage> consumer) {
+        executor.execute(() -> {
+            if (!closed)
+                consumer.accept(file, load(file));
+        });
+    }
+
+    /**
+     * Finishes storing the thumbnails of saved paintings and stops the background threads.
+     * Requested thumbnails which haven't been started are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static BufferedImage load(File file) {
+        var stamp = Stamp.of(file);
+        long oldHash = 0;
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar(file))))) {
+            if (in.readInt() == MAGIC && in.readUnsignedByte() == VERSION) {
+                oldHash = in.readLong();
+                var oldStamp = Stamp.read(in);
+                if (oldStamp.equals(stamp))
+                    return ImageIO.read(in);
+            }
+        } catch (IOException e) {
+            // no usable sidecar, so fall back to the painting
+        }
+
+        try {
+            var saved = PaintingJournal.read(file);
+            var painting = new Painting(saved.width(), saved.height(), saved.shapes(), null, null);
+            long hash = painting.contentHash();
+            BufferedImage image = null;
+            if (hash == oldHash)
+                // the files changed but the painting didn't, so the stored thumbnail only needs restamping
+                try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar(file))))) {
+                    in.skipNBytes(Integer.BYTES + 1 + Long.BYTES + Stamp.BYTES);
+                    image = ImageIO.read(in);
+                }
+            if (image == null)
+                image = draw(painting);
+            write(file, stamp, hash, image);
+            return image;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static BufferedImage draw(Painting painting) {
+        double scale = Math.min(1, (double) SIZE / Math.max(painting.width, painting.height));
+        return painting.render(RenderProfile.BALANCED, Color.WHITE, scale);
+    }
+
+    private static void write(File file, Stamp stamp, long hash, BufferedImage image) throws IOException {
+        var target = sidecar(file).toPath();
+        Files.createDirectories(target.getParent());
+        var next = target.resolveSibling(target.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(next.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(hash);
+            stamp.write(out);
+            if (!ImageIO.write(image, "png", out))
+                throw new IOException("No PNG writer is available");
+        }
+        Files.move(next, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The size and modification time of a painting's snapshot and journal.
+     */
+    private record Stamp(long size, long modified, long journalSize, long journalModified) {
+        static final int BYTES = 4 * Long.BYTES;
+
+        static Stamp of(File file) {
+            var journal = PaintingJournal.journalPath(file.toPath()).toFile();
+            return new Stamp(file.length(), file.lastModified(), journal.length(), journal.lastModified());
+        }
+
+        static Stamp read(DataInput in) throws IOException {
+            return new Stamp(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(journalSize);
+            out.writeLong(journalModified);
+        }
+    }
+}
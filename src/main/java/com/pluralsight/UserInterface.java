@@ -7,60 +7,87 @@ package com.pluralsight;
 import com.pluralsight.drawing.*;
 import com.pluralsight.shapes.*;
 
+import javax.swing.*;
+import java.awt.Dimension;
+import java.awt.GraphicsEnvironment;
+import java.awt.GridLayout;
 import java.io.*;
 import java.util.*;
 import java.util.function.*;
 
 public final class UserInterface {
 
-    private static boolean savePainting(File path, Painting p) {
-        try (FileOutputStream fs = new FileOutputStream(path);
-             ObjectOutputStream os = new ObjectOutputStream(fs)) {
-
-            os.writeInt(p.width);
-            os.writeInt(p.height);
-            os.writeObject(p.shapes);
-
-            return true;
-        } catch (IOException unused) {
-            return false;
-        }
-    }
-
     private static Painting loadPainting(File path) {
-        try (FileInputStream fs = new FileInputStream(path);
-             ObjectInputStream os = new ObjectInputStream(fs)
-        ) {
-            var width = os.readInt();
-            var height = os.readInt();
-            var in = os.readObject();
-
-            if (!(in instanceof List<?> list))
-                return null;
-
-            List<Shape<?>> shapeList = new ArrayList<>(list.size());
-            for (Object e : list) {
-                if (!(e instanceof Shape<?> shape))
-                    return null;
-                shapeList.add(shape);
-            }
+        try {
+            var saved = PaintingJournal.read(path);
 
-            var world = new World();
+            var world = new World(600, 600, RenderProfile.BALANCED);
             var turtle = new Turtle(world);
 
-            return new Painting(width, height, shapeList, world, turtle);
-        } catch (IOException unused) {
+            return new Painting(saved.width(), saved.height(), saved.shapes(), world, turtle);
+        } catch (IOException | IllegalArgumentException unused) {
             return null;
         }
     }
 
     private static Painting createPainting(int width, int height) {
-        var world = new World(width, height);
+        var world = new World(width, height, RenderProfile.BALANCED);
         var turtle = new Turtle(world);
 
         return new Painting(width, height, List.of(), world, turtle);
     }
 
+    /**
+     * Lists the files in a directory, shows their thumbnails as they become available, and asks which one to open.
+     *
+     * @return The chosen file, or null if none was chosen
+     */
+    private static File choosePainting(File directory, Scanner scanner) {
+        var files = directory.listFiles(file -> file.isFile()
+            && !file.getName().startsWith(".") && !file.getName().endsWith(".journal"));
+        if (files == null || files.length == 0) {
+            System.out.println("There are no paintings in ${directory.getPath()}.");
+            return null;
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++)
+            System.out.println("${i + 1}. ${files[i].getName()}");
+
+        JFrame frame = GraphicsEnvironment.isHeadless() ? null : new JFrame(directory.getName());
+        try (var thumbnails = new ThumbnailCache()) {
+            if (frame != null) {
+                var grid = new JPanel(new GridLayout(0, 4, 8, 8));
+                for (int i = 0; i < files.length; i++) {
+                    var label = new JLabel("${i + 1}. ${files[i].getName()}", SwingConstants.CENTER);
+                    label.setHorizontalTextPosition(SwingConstants.CENTER);
+                    label.setVerticalTextPosition(SwingConstants.BOTTOM);
+                    label.setPreferredSize(new Dimension(ThumbnailCache.SIZE + 32, ThumbnailCache.SIZE + 32));
+                    grid.add(label);
+                    // files which aren't paintings keep their name and no picture
+                    thumbnails.request(files[i], (file, image) -> {
+                        if (image != null)
+                            SwingUtilities.invokeLater(() -> label.setIcon(new ImageIcon(image)));
+                    });
+                }
+                frame.add(new JScrollPane(grid));
+                frame.setSize(4 * (ThumbnailCache.SIZE + 40) + 32, 3 * (ThumbnailCache.SIZE + 40) + 32);
+                frame.setVisible(true);
+            }
+            System.out.println("Which painting? (Enter its number, or nothing to cancel)");
+            var choice = repeat(
+                () -> scanner.nextLine().trim(),
+                s -> {
+                    int number = tryReadInt(s).orElse(0);
+                    return s.isEmpty() || number >= 1 && number <= files.length;
+                },
+                s -> System.out.println("There is no painting $s. Try again."));
+            return choice.isEmpty() ? null : files[Integer.parseInt(choice) - 1];
+        } finally {
+            if (frame != null)
+                frame.dispose();
+        }
+    }
+
     private static <T> T repeat(Supplier<? extends T> input, Predicate<? super T> validator, Consumer<? super T> onFailure) {
         while (true) {
             var val = input.get();
@@ -94,13 +121,18 @@ public final class UserInterface {
                         break loop;
                     }
                     case "load" -> {
-                        System.out.println("Which painting? (Enter nothing to cancel)");
+                        System.out.println("Which painting? (Enter a directory to browse it, or nothing to cancel)");
                         var inFile = repeat(
                             () -> new File(scanner.nextLine()),
                             file -> file.exists() || file.getPath().isEmpty(),
                             file -> System.out.println("That file (${file.getPath()}) doesn't exist. Try again."));
                         if (inFile.getPath().isEmpty())
                             break;
+                        if (inFile.isDirectory()) {
+                            inFile = choosePainting(inFile, scanner);
+                            if (inFile == null)
+                                break;
+                        }
                         var loaded = loadPainting(inFile);
                         if (loaded == null) {
                             System.out.println("Something went wrong loading the file. Please try again.");
@@ -128,7 +160,71 @@ public final class UserInterface {
         }
     }
 
-    private void runEditor(Painting painting, File file, Scanner scanner) {
+    /**
+     * Applies a file or stream of edit commands to a painting without showing it, then saves it.
+     *
+     * @param paintingFile The painting to edit, which is created at 600 by 600 pixels if it doesn't exist
+     * @param commands     The commands to apply
+     * @return true if every command was applied and the painting was saved, false otherwise
+     * @see EditCommandStream
+     */
+    public boolean runBatch(File paintingFile, Reader commands) {
+        Painting painting;
+        try {
+            if (paintingFile.exists()) {
+                var saved = PaintingJournal.read(paintingFile);
+                painting = new Painting(saved.width(), saved.height(), saved.shapes(), null, null);
+            } else
+                painting = new Painting(600, 600, List.of(), null, null);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Couldn't load ${paintingFile.getPath()}: ${e.getMessage()}");
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try (var stream = new EditCommandStream(painting, paintingFile, System.err)) {
+            stream.run(commands);
+            stream.save();
+            System.err.println("Applied %d commands to %d shapes in %.1f s with %d errors".formatted(
+                stream.getEdits(), painting.size(), (System.nanoTime() - start) / 1e9, stream.getErrors()));
+            return stream.getErrors() == 0;
+        } catch (IOException e) {
+            System.err.println("Couldn't apply the commands: ${e.getMessage()}");
+            return false;
+        }
+    }
 
+    private void runEditor(Painting painting, File file, Scanner scanner) {
+        System.out.println("""
+            --EDITOR--
+            circle X Y RADIUS
+            rect X Y WIDTH HEIGHT
+            polygon X Y SIDES RADIUS [ANGLE]
+            color NAME | #RRGGBB
+            fill NAME | #RRGGBB | none
+            stroke WIDTH
+            remove INDEX
+            pick X Y
+            undo
+            redo
+            save [FILE]
+            reload [FILE]
+            render FILE.png [SCALE]
+            export FILE.png SCALE [FILE.png SCALE [FILE.png SCALE]]
+            done""");
+        painting.draw();
+        try (var stream = new EditCommandStream(painting, file, System.out)) {
+            while (true) {
+                var input = scanner.nextLine();
+                if (input.trim().equalsIgnoreCase("done"))
+                    break;
+                stream.run(new StringReader(input));
+            }
+        } catch (IOException e) {
+            System.out.println("Something went wrong saving the painting: ${e.getMessage()}");
+        } finally {
+            painting.stop();
+            painting.world.dispose();
+        }
     }
 }
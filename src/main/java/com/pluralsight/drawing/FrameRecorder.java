@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.drawing;
+
+import javax.imageio.*;
+import javax.imageio.metadata.*;
+import javax.imageio.stream.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * Records a {@link World}'s turtle animation as numbered PNG images or an animated GIF.
+ * <p>
+ * Frames are taken at a fixed rate of the animation's own time, which advances as turtles pause,
+ * so a recording plays back at the speed the animation was meant to run however fast it was drawn.
+ * While a turtle pauses nothing changes, so one frame stands for every frame of the pause.
+ * <p>
+ * Frames are copied into a fixed ring of images and encoded on a background thread.
+ * If the encoder falls so far behind that the ring is full, frames are dropped rather than
+ * making the world wait; the time they covered is added to the next frame kept.
+ * <p>
+ * Usage example:
+ * <pre>
+ * try (FrameRecorder recorder = FrameRecorder.gif(world, new File("spiral.gif"), 25, 16)) {
+ *     for (int i = 0; i &lt; 100; i++) {
+ *         turtle.forward(i);
+ *         turtle.turnRight(90);
+ *     }
+ * }
+ * </pre>
+ */
+public final class FrameRecorder implements Closeable {
+    /// how often closing checks the encoder is still alive while waiting for a free frame
+    private static final long FINISH_POLL_MILLIS = 100;
+    private final World world;
+    private final Encoder encoder;
+    private final double frameMillis;
+    private final BlockingQueue<Frame> free;
+    private final BlockingQueue<Frame> full;
+    private final Frame end = new Frame(null);
+    private final Thread thread;
+    /// the animation time, in milliseconds since recording started; only used on the world's thread
+    private double clock;
+    /// the frames passed since the last frame was kept; only used on the world's thread
+    private long owed;
+    private volatile long framesWritten;
+    private volatile long framesDropped;
+    private volatile IOException failure;
+    private boolean closed;
+
+    private FrameRecorder(World world, Encoder encoder, double framesPerSecond, int ringSize) {
+        if (!(framesPerSecond > 0))
+            throw new IllegalArgumentException("The frame rate must be positive");
+        if (ringSize <= 0)
+            throw new IllegalArgumentException("The ring must hold at least one frame");
+        this.world = world;
+        this.encoder = encoder;
+        frameMillis = 1000 / framesPerSecond;
+        free = new ArrayBlockingQueue<>(ringSize);
+        full = new ArrayBlockingQueue<>(ringSize + 1);
+        int width = 2 * world.centerX;
+        int height = 2 * world.centerY;
+        for (int i = 0; i < ringSize; i++)
+            free.add(new Frame(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)));
+
+        thread = new Thread(this::encode, "frame-encoder");
+        thread.setDaemon(true);
+        thread.start();
+        world.setRecorder(this);
+    }
+
+    /**
+     * Starts recording a world as numbered PNG images, one per frame.
+     *
+     * @param world           The world to record
+     * @param directory       The directory to write frame-000000.png, frame-000001.png, and so on to
+     * @param framesPerSecond The frame rate, in frames per second of animation time
+     * @param ringSize        The number of frames which may wait to be encoded
+     * @return A recorder which stops recording when closed
+     * @throws IOException if the directory couldn't be created
+     */
+    public static FrameRecorder pngSequence(World world, File directory, double framesPerSecond, int ringSize)
+        throws IOException {
+        Files.createDirectories(directory.toPath());
+        return new FrameRecorder(world, new PngEncoder(directory.toPath()), framesPerSecond, ringSize);
+    }
+
+    /**
+     * Starts recording a world as a looping animated GIF.
+     *
+     * @param world           The world to record
+     * @param file            The file to write
+     * @param framesPerSecond The frame rate, in frames per second of animation time
+     * @param ringSize        The number of frames which may wait to be encoded
+     * @return A recorder which stops recording when closed
+     * @throws IOException if the file couldn't be created
+     */
+    public static FrameRecorder gif(World world, File file, double framesPerSecond, int ringSize) throws IOException {
+        return new FrameRecorder(world, new GifEncoder(file, 1000 / framesPerSecond), framesPerSecond, ringSize);
+    }
+
+    /**
+     * @return The number of frames encoded so far, counting a frame held through a pause once per frame it spans
+     */
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * @return The number of frames dropped because the encoder fell behind
+     */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * Stops recording, adds the world as it is now as the last frame,
+     * and waits for every frame to be encoded.
+     *
+     * @throws IOException if a frame couldn't be encoded
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        world.detachRecorder(this);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding frames");
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Moves the animation clock forward, keeping a frame if any frame times were passed.
+     * Must only be called on the world's thread.
+     */
+    void advance(int millis) {
+        long before = (long) (clock / frameMillis);
+        clock += millis;
+        long passed = (long) (clock / frameMillis) - before;
+        if (passed == 0)
+            return;
+        owed += passed;
+        Frame frame = free.poll();
+        if (frame == null) {
+            // the encoder is behind; the next frame kept will cover these frames' time
+            framesDropped += passed;
+            return;
+        }
+        capture(frame);
+    }
+
+    /**
+     * Keeps the world as it is now as the last frame.
+     * Must only be called on the world's thread, once the world has stopped calling {@link #advance(int)}.
+     */
+    void finish() {
+        owed = Math.max(owed, 1);
+        try {
+            // waiting here only holds up the world while the recorder is being closed,
+            // and stops if the encoder died, since then no frame will ever be freed
+            Frame frame;
+            while ((frame = free.poll(FINISH_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null)
+                if (!thread.isAlive())
+                    return;
+            capture(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            full.add(end);
+        }
+    }
+
+    private void capture(Frame frame) {
+        frame.frames = owed;
+        owed = 0;
+        Graphics2D g = frame.image.createGraphics();
+        world.composite(g);
+        g.dispose();
+        full.add(frame);
+    }
+
+    private void encode() {
+        try {
+            while (true) {
+                Frame frame = full.take();
+                if (frame == end)
+                    break;
+                if (failure == null)
+                    try {
+                        encoder.write(frame.image, frame.frames);
+                        framesWritten += frame.frames;
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        // ImageIO and the GIF metadata code throw unchecked exceptions too
+                        failure = new IOException("Couldn't encode a frame", e);
+                    }
+                free.add(frame);
+            }
+            encoder.close();
+        } catch (IOException e) {
+            if (failure == null)
+                failure = e;
+        } catch (RuntimeException e) {
+            if (failure == null)
+                failure = new IOException("Couldn't finish encoding", e);
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Interrupted while encoding frames");
+        }
+    }
+
+    /**
+     * A slot in the ring of frames.
+     */
+    private static final class Frame {
+        final BufferedImage image;
+        /// the number of frame times this frame is shown for
+        long frames;
+
+        Frame(BufferedImage image) {
+            this.image = image;
+        }
+    }
+
+    /**
+     * Writes frames in some format.
+     * Only called from the encoding thread.
+     */
+    private interface Encoder extends Closeable {
+        /**
+         * @param image  The frame, which is reused once this returns
+         * @param frames The number of frame times it is shown for
+         */
+        void write(BufferedImage image, long frames) throws IOException;
+    }
+
+    private static final class PngEncoder implements Encoder {
+        private final Path directory;
+        private long index;
+
+        PngEncoder(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void write(BufferedImage image, long frames) throws IOException {
+            Path first = directory.resolve("frame-%06d.png".formatted(index++));
+            if (!ImageIO.write(image, "png", first.toFile()))
+                throw new IOException("No PNG writer is available");
+            // a still frame is written once and copied for the rest of its frame times
+            for (long i = 1; i < frames; i++)
+                Files.copy(first, directory.resolve("frame-%06d.png".formatted(index++)),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class GifEncoder implements Encoder {
+        private final ImageOutputStream out;
+        private final ImageWriter writer;
+        private final double frameMillis;
+        /// the animation time at the start of the next frame, in milliseconds
+        private double time;
+        private boolean started;
+
+        GifEncoder(File file, double frameMillis) throws IOException {
+            var writers = ImageIO.getImageWritersByFormatName("gif");
+            if (!writers.hasNext())
+                throw new IOException("No GIF writer is available");
+            writer = writers.next();
+            Files.deleteIfExists(file.toPath());
+            out = ImageIO.createImageOutputStream(file);
+            writer.setOutput(out);
+            this.frameMillis = frameMillis;
+        }
+
+        @Override
+        public void write(BufferedImage image, long frames) throws IOException {
+            boolean first = !started;
+            if (first) {
+                writer.prepareWriteSequence(null);
+                started = true;
+            }
+            // GIF delays are in hundredths of a second, so round the end times rather than each delay
+            long start = Math.round(time / 10);
+            time += frames * frameMillis;
+            long delay = Math.max(1, Math.round(time / 10) - start);
+
+            var type = ImageTypeSpecifier.createFromRenderedImage(image);
+            var metadata = writer.getDefaultImageMetadata(type, null);
+            String format = metadata.getNativeMetadataFormatName();
+            var root = (IIOMetadataNode) metadata.getAsTree(format);
+            var control = child(root, "GraphicControlExtension");
+            control.setAttribute("disposalMethod", "none");
+            control.setAttribute("userInputFlag", "FALSE");
+            control.setAttribute("transparentColorFlag", "FALSE");
+            control.setAttribute("delayTime", Long.toString(Math.min(delay, 0xFFFF)));
+            control.setAttribute("transparentColorIndex", "0");
+            if (first) {
+                // loop forever
+                var loop = new IIOMetadataNode("ApplicationExtension");
+                loop.setAttribute("applicationID", "NETSCAPE");
+                loop.setAttribute("authenticationCode", "2.0");
+                loop.setUserObject(new byte[]{1, 0, 0});
+                child(root, "ApplicationExtensions").appendChild(loop);
+            }
+            metadata.setFromTree(format, root);
+            writer.writeToSequence(new IIOImage(image, null, metadata), null);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (started)
+                    writer.endWriteSequence();
+            } finally {
+                writer.dispose();
+                out.close();
+            }
+        }
+
+        private static IIOMetadataNode child(IIOMetadataNode root, String name) {
+            for (int i = 0; i < root.getLength(); i++)
+                if (root.item(i).getNodeName().equals(name))
+                    return (IIOMetadataNode) root.item(i);
+            var node = new IIOMetadataNode(name);
+            root.appendChild(node);
+            return node;
+        }
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.drawing;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Draws thin lines and the strokes of axis-aligned rectangles straight into an image's pixel array,
+ * skipping Java2D's general purpose stroking.
+ * <p>
+ * Thin lines are drawn with Xiaolin Wu's algorithm when antialiased.
+ * Without antialiasing, translucent thin lines are drawn with Bresenham's algorithm,
+ * and rectangle strokes of any width are filled a row span at a time;
+ * opaque aliased lines are left to Java2D, whose native loops draw them just as fast.
+ * <p>
+ * Paths of any shape are filled by a scanline engine: an edge table sorted by starting scanline
+ * feeds an active edge list, and the spans between edge crossings are filled a run of pixels at a time.
+ * Antialiased fills sample each pixel row at {@value #SUBSAMPLES} heights,
+ * and cover pixels in proportion to how much of each sample's span crosses them;
+ * opaque aliased fills are left to Java2D.
+ * Anything else is refused: each drawing method returns false, having drawn nothing,
+ * so the caller can draw it with Java2D instead.
+ * <p>
+ * Rasterizers are made by {@link RenderProfile#createRasterizer(BufferedImage)}.
+ * Writing to an image's pixel array stops Java2D from caching the image in video memory,
+ * which costs nothing for images which are drawn in software anyway.
+ */
+public final class PixelRasterizer {
+    /// strokes at most this wide in pixels are drawn as lines one pixel wide
+    private static final double THIN = 1;
+    /// the tolerance in pixels curves are flattened to
+    private static final double FLATNESS = 0.25;
+    /// scanlines sampled per pixel row when filling antialiased
+    private static final int SUBSAMPLES = 4;
+    private final int[] data;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+    private final int type;
+    private final boolean antialias;
+    /// lines reaching further than this outside the image are left to Java2D, which clips them
+    private final double reach;
+    /// the points of the path being drawn, reused between shapes
+    private double[] points = new double[64];
+    /// the edges of the path being filled: top y, bottom y, x at the top, and x per unit of y
+    private double[] edges = new double[64];
+    /// +1 for edges running down, -1 for edges running up
+    private int[] windings = new int[16];
+    /// the edge table: the first edge starting on each scanline, and the next edge starting on the same one
+    private int[] firstEdge = new int[0];
+    private int[] nextEdge = new int[16];
+    /// the active edge list, kept sorted by where each edge crosses the current scanline
+    private int[] active = new int[16];
+    private double[] crossings = new double[16];
+    /// antialiased coverage of the current pixel row, and changes in coverage carried along the row
+    private float[] coverage = new float[0];
+    private float[] carry = new float[0];
+
+    private PixelRasterizer(BufferedImage image, SinglePixelPackedSampleModel model, boolean antialias) {
+        var raster = image.getRaster();
+        var buffer = (DataBufferInt) raster.getDataBuffer();
+        data = buffer.getData();
+        offset = buffer.getOffset()
+            + model.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+        stride = model.getScanlineStride();
+        width = image.getWidth();
+        height = image.getHeight();
+        type = image.getType();
+        this.antialias = antialias;
+        reach = width + height;
+    }
+
+    /**
+     * @return A rasterizer for the image, or null if its pixels aren't stored as packed ints
+     */
+    static PixelRasterizer of(BufferedImage image, boolean antialias) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB
+            && type != BufferedImage.TYPE_INT_ARGB_PRE)
+            return null;
+        var raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel model)
+            || !(raster.getDataBuffer() instanceof DataBufferInt))
+            return null;
+        return new PixelRasterizer(image, model, antialias);
+    }
+
+    /**
+     * Draws a line with round caps.
+     *
+     * @param x1          The x coordinate of the start, in pixels
+     * @param y1          The y coordinate of the start, in pixels
+     * @param x2          The x coordinate of the end, in pixels
+     * @param y2          The y coordinate of the end, in pixels
+     * @param strokeWidth The width of the line in pixels
+     * @param color       The color to draw with
+     * @return false if nothing was drawn because Java2D draws this line better or just as fast
+     */
+    public boolean drawLine(double x1, double y1, double x2, double y2, double strokeWidth, Color color) {
+        int argb = color.getRGB();
+        if (!takesLine(strokeWidth, argb) || !inReach(x1, y1) || !inReach(x2, y2))
+            return false;
+        line(x1, y1, x2, y2, argb, alpha(argb, strokeWidth), true);
+        return true;
+    }
+
+    /**
+     * Draws connected lines with round caps and joins.
+     * Where lines meet, the pixel is only drawn once, so translucent polylines have no dark joints.
+     *
+     * @param xy          The points to connect, as x, y pairs in pixels
+     * @param count       The number of points to connect
+     * @param strokeWidth The width of the lines in pixels
+     * @param color       The color to draw with
+     * @return false if nothing was drawn because Java2D draws these lines better or just as fast
+     */
+    public boolean drawPolyline(double[] xy, int count, double strokeWidth, Color color) {
+        int argb = color.getRGB();
+        if (!takesLine(strokeWidth, argb))
+            return false;
+        for (int i = 0; i < count; i++)
+            if (!inReach(xy[2 * i], xy[2 * i + 1]))
+                return false;
+        polyline(xy, 0, count, argb, alpha(argb, strokeWidth));
+        return true;
+    }
+
+    /**
+     * Strokes a path made of straight lines, with round caps and joins.
+     * Curves are flattened first.
+     *
+     * @param path        The path to stroke
+     * @param transform   The transform from the path's coordinates to pixels, or null if they are pixels
+     * @param strokeWidth The width of the stroke, in the path's coordinates
+     * @param color       The color to draw with
+     * @return false if nothing was drawn because Java2D draws this path better or just as fast
+     */
+    public boolean draw(Shape path, AffineTransform transform, double strokeWidth, Color color) {
+        if (transform != null)
+            strokeWidth *= Math.sqrt(Math.abs(transform.getDeterminant()));
+        int argb = color.getRGB();
+        boolean lines = takesLine(strokeWidth, argb);
+        if (!lines && antialias)
+            return false;
+
+        // gather every subpath first, so nothing is drawn unless all of it can be
+        int length = 0;
+        double startX = 0;
+        double startY = 0;
+        var coords = new double[6];
+        for (var it = path.getPathIterator(transform, FLATNESS); !it.isDone(); it.next()) {
+            int segment = it.currentSegment(coords);
+            if (segment == PathIterator.SEG_CLOSE) {
+                // a path which already ended where it started only needs closing once
+                if (points[length - 2] == startX && points[length - 1] == startY)
+                    continue;
+                coords[0] = startX;
+                coords[1] = startY;
+            } else if (!inReach(coords[0], coords[1]))
+                return false;
+            if (length + 3 > points.length)
+                points = Arrays.copyOf(points, 2 * points.length);
+            if (segment == PathIterator.SEG_MOVETO) {
+                // NaN separates subpaths
+                points[length++] = Double.NaN;
+                startX = coords[0];
+                startY = coords[1];
+            }
+            points[length++] = coords[0];
+            points[length++] = coords[1];
+        }
+
+        // without antialiasing, filling spans beats drawing even thin rectangles a line at a time
+        if (!antialias && isRectangle(length)) {
+            strokeRectangle(Math.min(points[1], points[5]), Math.min(points[2], points[6]),
+                Math.max(points[1], points[5]), Math.max(points[2], points[6]), strokeWidth, argb);
+            return true;
+        }
+        if (!lines)
+            return false;
+        int alpha = alpha(argb, strokeWidth);
+        for (int start = 0; start < length; ) {
+            int end = start + 1;
+            while (end < length && !Double.isNaN(points[end]))
+                end++;
+            polyline(points, start + 1, (end - start - 1) / 2, argb, alpha);
+            start = end;
+        }
+        return true;
+    }
+
+    /**
+     * Fills the inside of a path.
+     * Curves are flattened first.
+     *
+     * @param path      The path to fill, which picks the winding rule
+     * @param transform The transform from the path's coordinates to pixels, or null if they are pixels
+     * @param color     The color to fill with
+     * @return false if nothing was drawn because the fill is opaque and aliased,
+     * or the path reaches too far outside the image
+     */
+    public boolean fill(Shape path, AffineTransform transform, Color color) {
+        // Java2D's native loops fill opaque aliased spans as fast, and normalize them the same as its strokes
+        if (!antialias && color.getAlpha() == 255)
+            return false;
+        var it = path.getPathIterator(transform, FLATNESS);
+        boolean evenOdd = it.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+        int scale = antialias ? SUBSAMPLES : 1;
+        int count = 0;
+        double top = Double.POSITIVE_INFINITY;
+        double bottom = Double.NEGATIVE_INFINITY;
+        double startX = 0;
+        double startY = 0;
+        double x = 0;
+        double y = 0;
+        var coords = new double[6];
+        for (; !it.isDone(); it.next()) {
+            int segment = it.currentSegment(coords);
+            if (segment == PathIterator.SEG_CLOSE || segment == PathIterator.SEG_MOVETO) {
+                // every subpath is closed when it is filled
+                count = addEdge(count, x, y, startX, startY);
+                x = startX;
+                y = startY;
+                if (segment == PathIterator.SEG_CLOSE)
+                    continue;
+                if (!inReach(coords[0], coords[1]))
+                    return false;
+                startX = x = coords[0];
+                startY = y = coords[1];
+            } else {
+                if (!inReach(coords[0], coords[1]))
+                    return false;
+                count = addEdge(count, x, y, coords[0], coords[1]);
+                x = coords[0];
+                y = coords[1];
+            }
+            top = Math.min(top, y);
+            bottom = Math.max(bottom, y);
+        }
+        count = addEdge(count, x, y, startX, startY);
+        if (count == 0)
+            return true;
+
+        // scanlines are numbered from the top of the image, scale to a pixel row
+        int first = Math.max(0, (int) Math.ceil(top * scale - 0.5));
+        int last = Math.min(height * scale, (int) Math.ceil(bottom * scale - 0.5));
+        if (first >= last)
+            return true;
+        if (firstEdge.length < last - first)
+            firstEdge = new int[Math.max(last - first, 2 * firstEdge.length)];
+        Arrays.fill(firstEdge, 0, last - first, -1);
+        if (nextEdge.length < count)
+            nextEdge = new int[windings.length];
+        for (int e = 0; e < count; e++) {
+            int start = Math.max(first, (int) Math.ceil(edges[4 * e] * scale - 0.5));
+            if (start >= last || start >= (int) Math.ceil(edges[4 * e + 1] * scale - 0.5))
+                continue;
+            nextEdge[e] = firstEdge[start - first];
+            firstEdge[start - first] = e;
+        }
+
+        int argb = color.getRGB();
+        int alpha = argb >>> 24;
+        if (antialias && coverage.length < width + 1) {
+            coverage = new float[width + 1];
+            carry = new float[width + 1];
+        }
+        if (active.length < count) {
+            active = new int[windings.length];
+            crossings = new double[windings.length];
+        }
+        int actives = 0;
+        int minX = width;
+        int maxX = 0;
+        for (int line = first; line < last; line++) {
+            double sample = (line + 0.5) / scale;
+            // drop the edges which ended, add the ones which start, and find where each crosses this scanline
+            int kept = 0;
+            for (int i = 0; i < actives; i++)
+                if (edges[4 * active[i] + 1] * scale - 0.5 > line)
+                    active[kept++] = active[i];
+            actives = kept;
+            for (int e = firstEdge[line - first]; e >= 0; e = nextEdge[e])
+                active[actives++] = e;
+            for (int i = 0; i < actives; i++) {
+                int e = active[i];
+                double crossing = edges[4 * e + 2] + edges[4 * e + 3] * (sample - edges[4 * e]);
+                // insertion sort, which is fast because the order barely changes from one scanline to the next
+                int j = i;
+                for (; j > 0 && crossings[j - 1] > crossing; j--) {
+                    crossings[j] = crossings[j - 1];
+                    active[j] = active[j - 1];
+                }
+                crossings[j] = crossing;
+                active[j] = e;
+            }
+
+            int winding = 0;
+            for (int i = 0; i + 1 < actives; i++) {
+                winding += windings[active[i]];
+                boolean inside = evenOdd ? (winding & 1) != 0 : winding != 0;
+                if (!inside || crossings[i] == crossings[i + 1])
+                    continue;
+                if (!antialias) {
+                    span(line, crossings[i], crossings[i + 1], argb, alpha);
+                    continue;
+                }
+                double from = Math.max(0, crossings[i]);
+                double to = Math.min(width, crossings[i + 1]);
+                if (from >= to)
+                    continue;
+                cover(from, to);
+                minX = Math.min(minX, (int) from);
+                maxX = Math.max(maxX, (int) Math.ceil(to));
+            }
+            if (antialias && (line + 1) % scale == 0 && minX < maxX) {
+                resolve(line / scale, minX, maxX, argb, alpha);
+                minX = width;
+                maxX = 0;
+            }
+        }
+        if (antialias && minX < maxX)
+            resolve((last - 1) / scale, minX, maxX, argb, alpha);
+        return true;
+    }
+
+    /**
+     * Adds an edge to the edge list, unless it is horizontal and so never crosses a scanline.
+     *
+     * @return The number of edges now in the list
+     */
+    private int addEdge(int count, double x1, double y1, double x2, double y2) {
+        if (y1 == y2)
+            return count;
+        if (4 * count + 4 > edges.length) {
+            edges = Arrays.copyOf(edges, 2 * edges.length);
+            windings = Arrays.copyOf(windings, 2 * windings.length);
+        }
+        boolean down = y1 < y2;
+        double top = down ? y1 : y2;
+        edges[4 * count] = top;
+        edges[4 * count + 1] = down ? y2 : y1;
+        edges[4 * count + 2] = down ? x1 : x2;
+        edges[4 * count + 3] = (x2 - x1) / (y2 - y1);
+        windings[count] = down ? 1 : -1;
+        return count + 1;
+    }
+
+    /**
+     * Adds one scanline's span to the coverage of the current pixel row.
+     * Pixels the span only partly crosses get the part it crosses;
+     * the run of pixels it crosses completely is recorded at its two ends and filled in by {@link #resolve}.
+     */
+    private void cover(double from, double to) {
+        float weight = 1f / SUBSAMPLES;
+        int left = (int) from;
+        int right = (int) to;
+        if (left == right) {
+            coverage[left] += (float) (to - from) * weight;
+            return;
+        }
+        coverage[left] += (float) (left + 1 - from) * weight;
+        carry[left + 1] += weight;
+        carry[right] -= weight;
+        if (right < width)
+            coverage[right] += (float) (to - right) * weight;
+    }
+
+    /**
+     * Draws the coverage gathered for a pixel row, then clears it for the next row.
+     */
+    private void resolve(int row, int minX, int maxX, int argb, int alpha) {
+        int base = offset + row * stride;
+        float carried = 0;
+        for (int x = minX; x < maxX; ) {
+            carried += carry[x];
+            float covered = carried + coverage[x];
+            carry[x] = 0;
+            coverage[x] = 0;
+            blendRun(base + x, base + x + 1, argb, Math.round(alpha * Math.min(1, covered)));
+            // the pixels up to the next edge are all covered as much as the carried coverage says
+            int end = x + 1;
+            while (end < maxX && carry[end] == 0 && coverage[end] == 0)
+                end++;
+            blendRun(base + x + 1, base + end, argb, Math.round(alpha * Math.min(1, carried)));
+            x = end;
+        }
+        carry[maxX] = 0;
+    }
+
+    private boolean isThin(double strokeWidth) {
+        return strokeWidth > 0 && strokeWidth <= THIN;
+    }
+
+    private boolean takesLine(double strokeWidth, int argb) {
+        return isThin(strokeWidth) && (antialias || argb >>> 24 != 255);
+    }
+
+    private boolean inReach(double x, double y) {
+        return x >= -reach && x <= width + reach && y >= -reach && y <= height + reach;
+    }
+
+    /**
+     * @return The opacity to draw a thin line with; antialiased lines thinner than a pixel are fainter
+     */
+    private int alpha(int argb, double strokeWidth) {
+        int alpha = argb >>> 24;
+        return antialias ? (int) Math.round(alpha * strokeWidth) : alpha;
+    }
+
+    /**
+     * @return Whether the gathered points are a single closed path around an axis-aligned rectangle
+     */
+    private boolean isRectangle(int length) {
+        // a move, four corners, and the first corner again
+        if (length != 11 || points[1] != points[9] || points[2] != points[10])
+            return false;
+        boolean horizontalFirst = points[2] == points[4];
+        for (int i = 1; i < 9; i += 2) {
+            boolean horizontal = (i / 2 % 2 == 0) == horizontalFirst;
+            if (horizontal ? points[i + 1] != points[i + 3] : points[i] != points[i + 2])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param offset The index in xy of the first point's x coordinate
+     */
+    private void polyline(double[] xy, int offset, int count, int argb, int alpha) {
+        int end = offset + 2 * count;
+        if (count == 1) {
+            line(xy[offset], xy[offset + 1], xy[offset], xy[offset + 1], argb, alpha, true);
+            return;
+        }
+        boolean closed = count > 2 && xy[offset] == xy[end - 2] && xy[offset + 1] == xy[end - 1];
+        for (int i = offset + 2; i < end; i += 2)
+            // each line leaves out its last pixel, which the next line starts on
+            line(xy[i - 2], xy[i - 1], xy[i], xy[i + 1], argb, alpha, i == end - 2 && !closed);
+    }
+
+    private void line(double x1, double y1, double x2, double y2, int argb, int alpha, boolean includeEnd) {
+        if (alpha <= 0)
+            return;
+        if (antialias)
+            wu(x1, y1, x2, y2, argb, alpha, includeEnd);
+        else
+            // the pixel nearest each end, as Java2D picks them for aliased lines
+            bresenham((int) Math.floor(x1 + 0.5), (int) Math.floor(y1 + 0.5),
+                (int) Math.floor(x2 + 0.5), (int) Math.floor(y2 + 0.5), argb, alpha, includeEnd);
+    }
+
+    // See https://en.wikipedia.org/wiki/Bresenham%27s_line_algorithm
+    private void bresenham(int x1, int y1, int x2, int y2, int argb, int alpha, boolean includeEnd) {
+        int dx = Math.abs(x2 - x1);
+        int dy = -Math.abs(y2 - y1);
+        int sx = x1 < x2 ? 1 : -1;
+        int sy = y1 < y2 ? 1 : -1;
+        int error = dx + dy;
+        if (!inside(x1, y1) || !inside(x2, y2)) {
+            while (x1 != x2 || y1 != y2) {
+                plot(x1, y1, argb, alpha);
+                int e2 = 2 * error;
+                if (e2 >= dy) {
+                    error += dy;
+                    x1 += sx;
+                }
+                if (e2 <= dx) {
+                    error += dx;
+                    y1 += sy;
+                }
+            }
+            if (includeEnd)
+                plot(x2, y2, argb, alpha);
+            return;
+        }
+
+        // a line between two pixels inside the image stays inside, so it can step through the array unchecked
+        int index = offset + y1 * stride + x1;
+        int stepY = sy * stride;
+        int opaque = argb | 0xFF000000;
+        for (int steps = Math.max(dx, -dy); steps > 0; steps--) {
+            if (alpha == 255)
+                data[index] = opaque;
+            else
+                blend(index, argb, alpha);
+            int e2 = 2 * error;
+            if (e2 >= dy) {
+                error += dy;
+                index += sx;
+            }
+            if (e2 <= dx) {
+                error += dx;
+                index += stepY;
+            }
+        }
+        if (includeEnd)
+            blend(index, argb, alpha);
+    }
+
+    private boolean inside(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
+    // See https://en.wikipedia.org/wiki/Xiaolin_Wu%27s_line_algorithm
+    private void wu(double x1, double y1, double x2, double y2, int argb, int alpha, boolean includeEnd) {
+        // pixel centers are at integer coordinates from here on
+        x1 -= 0.5;
+        y1 -= 0.5;
+        x2 -= 0.5;
+        y2 -= 0.5;
+        boolean steep = Math.abs(y2 - y1) > Math.abs(x2 - x1);
+        if (steep) {
+            double t = x1;
+            x1 = y1;
+            y1 = t;
+            t = x2;
+            x2 = y2;
+            y2 = t;
+        }
+        double gradient = x2 == x1 ? 0 : (y2 - y1) / (x2 - x1);
+        // walk the major axis in the line's own direction, so its last pixel can be left out
+        int first = (int) Math.floor(x1 + 0.5);
+        int last = (int) Math.floor(x2 + 0.5);
+        int step = last >= first ? 1 : -1;
+        for (int x = first; x != last + step; x += step) {
+            if (x == last && !includeEnd)
+                break;
+            double y = y1 + gradient * (x - x1);
+            int minor = (int) Math.floor(y);
+            int far = (int) Math.round(alpha * (y - minor));
+            if (steep) {
+                plot(minor, x, argb, alpha - far);
+                plot(minor + 1, x, argb, far);
+            } else {
+                plot(x, minor, argb, alpha - far);
+                plot(x, minor + 1, argb, far);
+            }
+        }
+    }
+
+    /**
+     * Fills the stroke around an axis-aligned rectangle a row at a time,
+     * rounding its outer corners the way a round join does.
+     * Pixels are filled if their centers are inside the stroke.
+     */
+    private void strokeRectangle(double left, double top, double right, double bottom, double strokeWidth, int argb) {
+        int alpha = argb >>> 24;
+        if (alpha == 0)
+            return;
+        if (isThin(strokeWidth)) {
+            // thin strokes cover the pixel nearest each edge, as Java2D's aliased lines do
+            int x1 = (int) Math.floor(left + 0.5);
+            int y1 = (int) Math.floor(top + 0.5);
+            int x2 = (int) Math.floor(right + 0.5);
+            int y2 = (int) Math.floor(bottom + 0.5);
+            span(y1, x1, x2 + 1, argb, alpha);
+            for (int row = y1 + 1; row < y2; row++) {
+                span(row, x1, x1 + 1, argb, alpha);
+                if (x2 > x1)
+                    span(row, x2, x2 + 1, argb, alpha);
+            }
+            if (y2 > y1)
+                span(y2, x1, x2 + 1, argb, alpha);
+            return;
+        }
+        double half = strokeWidth / 2;
+        boolean hollow = left + half < right - half && top + half < bottom - half;
+        int firstRow = Math.max(0, (int) Math.ceil(top - half - 0.5));
+        int lastRow = Math.min(height, (int) Math.ceil(bottom + half - 0.5));
+        for (int row = firstRow; row < lastRow; row++) {
+            double y = row + 0.5;
+            double beyond = y < top ? top - y : y > bottom ? y - bottom : 0;
+            double inset = Math.sqrt(Math.max(0, half * half - beyond * beyond));
+            if (hollow && y > top + half && y < bottom - half) {
+                span(row, left - inset, left + half, argb, alpha);
+                span(row, right - half, right + inset, argb, alpha);
+            } else
+                span(row, left - inset, right + inset, argb, alpha);
+        }
+    }
+
+    /**
+     * Fills the pixels in a row whose centers are at least from and less than to.
+     */
+    private void span(int row, double from, double to, int argb, int alpha) {
+        span(row, (int) Math.ceil(from - 0.5), (int) Math.ceil(to - 0.5), argb, alpha);
+    }
+
+    /**
+     * Fills the pixels in a row from one column up to but not including another.
+     */
+    private void span(int row, int first, int last, int argb, int alpha) {
+        first = Math.max(0, first);
+        last = Math.min(width, last);
+        if (row < 0 || row >= height || first >= last)
+            return;
+        int base = offset + row * stride;
+        blendRun(base + first, base + last, argb, alpha);
+    }
+
+    private void plot(int x, int y, int argb, int alpha) {
+        if (x >= 0 && x < width && y >= 0 && y < height && alpha > 0)
+            blend(offset + y * stride + x, argb, alpha);
+    }
+
+    /**
+     * Draws a color over a run of pixels in the array with the source over rule.
+     *
+     * @param alpha The opacity to draw with, from 0 to 255, which replaces the color's own
+     */
+    private void blendRun(int from, int to, int argb, int alpha) {
+        if (alpha <= 0 || from >= to)
+            return;
+        if (alpha >= 255) {
+            Arrays.fill(data, from, to, argb | 0xFF000000);
+            return;
+        }
+        if (type != BufferedImage.TYPE_INT_RGB) {
+            for (int i = from; i < to; i++)
+                blend(i, argb, alpha);
+            return;
+        }
+        // the source's share of each channel is the same for the whole run
+        int inverse = 255 - alpha;
+        int r = (argb >> 16 & 0xFF) * alpha + 127;
+        int g = (argb >> 8 & 0xFF) * alpha + 127;
+        int b = (argb & 0xFF) * alpha + 127;
+        for (int i = from; i < to; i++) {
+            int dst = data[i];
+            data[i] = 0xFF000000
+                | (r + (dst >> 16 & 0xFF) * inverse) / 255 << 16
+                | (g + (dst >> 8 & 0xFF) * inverse) / 255 << 8
+                | (b + (dst & 0xFF) * inverse) / 255;
+        }
+    }
+
+    /**
+     * Draws a color over a pixel with the source over rule.
+     *
+     * @param alpha The opacity to draw with, from 0 to 255, which replaces the color's own
+     */
+    private void blend(int index, int argb, int alpha) {
+        if (alpha >= 255) {
+            data[index] = argb | 0xFF000000;
+            return;
+        }
+        int dst = data[index];
+        int inverse = 255 - alpha;
+        int r = argb >> 16 & 0xFF;
+        int g = argb >> 8 & 0xFF;
+        int b = argb & 0xFF;
+        int dr = dst >> 16 & 0xFF;
+        int dg = dst >> 8 & 0xFF;
+        int db = dst & 0xFF;
+        switch (type) {
+            case BufferedImage.TYPE_INT_RGB -> data[index] = 0xFF000000
+                | (r * alpha + dr * inverse + 127) / 255 << 16
+                | (g * alpha + dg * inverse + 127) / 255 << 8
+                | (b * alpha + db * inverse + 127) / 255;
+            case BufferedImage.TYPE_INT_ARGB_PRE -> data[index] = (alpha + ((dst >>> 24) * inverse + 127) / 255) << 24
+                | (r * alpha + dr * inverse + 127) / 255 << 16
+                | (g * alpha + dg * inverse + 127) / 255 << 8
+                | (b * alpha + db * inverse + 127) / 255;
+            default -> {
+                // straight alpha: the destination's color counts in proportion to what shows through
+                int below = ((dst >>> 24) * inverse + 127) / 255;
+                int out = alpha + below;
+                if (out == 0)
+                    return;
+                data[index] = out << 24
+                    | (r * alpha + dr * below + out / 2) / out << 16
+                    | (g * alpha + dg * below + out / 2) / out << 8
+                    | (b * alpha + db * below + out / 2) / out;
+            }
+        }
+    }
+}
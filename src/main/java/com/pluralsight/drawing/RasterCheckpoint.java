@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.drawing;
+
+/**
+ * An immutable snapshot of a {@link World}'s drawn paths.
+ * <p>
+ * The snapshot is stored as square tiles of pixels.
+ * Tiles which did not change between two checkpoints are shared between them,
+ * so a checkpoint only costs as much memory as the area drawn since the previous one.
+ *
+ * @see World#checkpoint()
+ * @see World#restore(RasterCheckpoint)
+ */
+public final class RasterCheckpoint {
+    final int width;
+    final int height;
+    /// the BufferedImage type of the pixels
+    final int type;
+    final int[][] tiles;
+
+    RasterCheckpoint(int width, int height, int type, int[][] tiles) {
+        this.width = width;
+        this.height = height;
+        this.type = type;
+        this.tiles = tiles;
+    }
+
+    /**
+     * @return The width in pixels of the world this was taken from
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height in pixels of the world this was taken from
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.drawing;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Trades drawing quality for speed.
+ * A profile picks the rendering hints and pixel formats a {@link World} uses,
+ * and whether thin lines and rectangles skip Java2D for a {@link PixelRasterizer}.
+ */
+public enum RenderProfile {
+    /**
+     * The fastest profile, for interactive editing.
+     * Paths are not antialiased, and thin lines and rectangles are drawn straight into the pixels.
+     */
+    DRAFT(Map.of(
+        RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF,
+        RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED,
+        RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED,
+        RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_NORMALIZE
+    ), BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB_PRE, true),
+    /**
+     * Antialiased paths on fast opaque layers.
+     * Thin lines are drawn straight into the pixels.
+     */
+    BALANCED(Map.of(
+        RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON,
+        RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED,
+        RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_DEFAULT,
+        RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_NORMALIZE
+    ), BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB_PRE, true),
+    /**
+     * The highest quality profile, for exporting.
+     * Everything is drawn with Java2D.
+     */
+    FINAL(Map.of(
+        RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON,
+        RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY,
+        RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY,
+        RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE
+    ), BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_ARGB, false);
+
+    private final Map<RenderingHints.Key, Object> hints;
+    private final int groundType;
+    private final int overlayType;
+    private final boolean direct;
+
+    RenderProfile(Map<RenderingHints.Key, Object> hints, int groundType, int overlayType, boolean direct) {
+        this.hints = hints;
+        this.groundType = groundType;
+        this.overlayType = overlayType;
+        this.direct = direct;
+    }
+
+    /**
+     * Applies this profile's rendering hints.
+     *
+     * @param g The graphics to configure
+     */
+    public void applyHints(Graphics2D g) {
+        g.addRenderingHints(hints);
+    }
+
+    /**
+     * Creates an image for paths to be drawn on.
+     * The image is opaque if the profile allows it and the background is opaque.
+     *
+     * @param width      The width in pixels
+     * @param height     The height in pixels
+     * @param background The background the image will be cleared to
+     * @return A new image
+     */
+    public BufferedImage createGround(int width, int height, Color background) {
+        int type = background.getAlpha() == 255 ? groundType : BufferedImage.TYPE_INT_ARGB;
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Creates a transparent image to be composited over the ground, such as for turtle shells.
+     *
+     * @param width  The width in pixels
+     * @param height The height in pixels
+     * @return A new image
+     */
+    public BufferedImage createOverlay(int width, int height) {
+        return new BufferedImage(width, height, overlayType);
+    }
+
+    /**
+     * Creates a rasterizer to draw thin lines and rectangles straight into an image's pixels,
+     * antialiased if this profile antialiases paths.
+     *
+     * @param image The image to draw on
+     * @return A rasterizer, or null if this profile draws everything with Java2D
+     * or the image's pixels can't be written directly
+     */
+    public PixelRasterizer createRasterizer(BufferedImage image) {
+        if (!direct)
+            return null;
+        return PixelRasterizer.of(image, hints.get(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.drawing;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * A raster too big to keep on the heap, such as a gigapixel painting.
+ * <p>
+ * The raster is split into square tiles which are only allocated once something is drawn on them,
+ * so blank regions cost nothing.
+ * A bounded number of tiles are kept on the heap for drawing;
+ * the rest are paged out to a memory-mapped scratch file.
+ * <p>
+ * Usage example:
+ * <pre>
+ * try (TiledRaster raster = new TiledRaster(20000, 20000, Color.WHITE)) {
+ *     raster.draw(new Line2D.Double(0, 0, 20000, 20000), new BasicStroke(5), Color.RED);
+ *     BufferedImage corner = raster.getRegion(new Rectangle(0, 0, 512, 512));
+ * }
+ * </pre>
+ */
+public final class TiledRaster implements Closeable {
+    /**
+     * The size in pixels of each square tile.
+     */
+    public static final int TILE_SIZE = 256;
+    private static final long TILE_BYTES = (long) TILE_SIZE * TILE_SIZE * Integer.BYTES;
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final Color background;
+    /// the slot in the scratch file of each paged out tile, or -1 if it has never been drawn on
+    private final int[] slots;
+    private final MappedByteBuffer[] mappings;
+    private final LinkedHashMap<Integer, Tile> resident;
+    private FileChannel scratch;
+    private Path scratchPath;
+    private int nextSlot;
+
+    /**
+     * Creates a new raster which keeps up to 64 tiles (16 MB) on the heap.
+     *
+     * @param width      The width in pixels
+     * @param height     The height in pixels
+     * @param background The color of blank regions
+     */
+    public TiledRaster(int width, int height, Color background) {
+        this(width, height, background, 64);
+    }
+
+    /**
+     * Creates a new raster.
+     *
+     * @param width            The width in pixels
+     * @param height           The height in pixels
+     * @param background       The color of blank regions
+     * @param maxResidentTiles The number of tiles to keep on the heap
+     */
+    public TiledRaster(int width, int height, Color background, int maxResidentTiles) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Size must be positive");
+        if (maxResidentTiles <= 0)
+            throw new IllegalArgumentException("At least one tile must be resident");
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tileCount = tilesX * ((height + TILE_SIZE - 1) / TILE_SIZE);
+        slots = new int[tileCount];
+        Arrays.fill(slots, -1);
+        mappings = new MappedByteBuffer[tileCount];
+        resident = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+                if (size() <= maxResidentTiles)
+                    return false;
+                pageOut(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Strokes the outline of a shape.
+     *
+     * @param shape  The shape to stroke, in pixel coordinates
+     * @param stroke The stroke to use
+     * @param color  The color to use
+     */
+    public void draw(Shape shape, Stroke stroke, Color color) {
+        forEachTile(stroke.createStrokedShape(shape), g -> {
+            g.setColor(color);
+            g.setStroke(stroke);
+            g.draw(shape);
+        });
+    }
+
+    /**
+     * Fills the interior of a shape.
+     *
+     * @param shape The shape to fill, in pixel coordinates
+     * @param color The color to use
+     */
+    public void fill(Shape shape, Color color) {
+        forEachTile(shape, g -> {
+            g.setColor(color);
+            g.fill(shape);
+        });
+    }
+
+    /**
+     * Copies part of this raster onto the heap.
+     *
+     * @param region The region to copy
+     * @return A new image containing the region
+     */
+    public BufferedImage getRegion(Rectangle region) {
+        var image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setBackground(background);
+        g.clearRect(0, 0, region.width, region.height);
+        int tx0 = Math.max(0, region.x) / TILE_SIZE;
+        int ty0 = Math.max(0, region.y) / TILE_SIZE;
+        int tx1 = (Math.min(width, region.x + region.width) - 1) / TILE_SIZE;
+        int ty1 = (Math.min(height, region.y + region.height) - 1) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++)
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int index = ty * tilesX + tx;
+                if (slots[index] < 0 && !resident.containsKey(index))
+                    continue;
+                g.drawImage(tile(index).image, tx * TILE_SIZE - region.x, ty * TILE_SIZE - region.y, null);
+            }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Gets the color of a single pixel.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @return The pixel in the default ARGB color model
+     */
+    public int getRGB(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            throw new IndexOutOfBoundsException("($x, $y) is outside the raster");
+        int index = y / TILE_SIZE * tilesX + x / TILE_SIZE;
+        if (slots[index] < 0 && !resident.containsKey(index))
+            return background.getRGB();
+        return tile(index).image.getRGB(x % TILE_SIZE, y % TILE_SIZE);
+    }
+
+    /**
+     * @return The number of tiles which have been drawn on
+     */
+    public int getAllocatedTiles() {
+        int count = resident.size();
+        for (int i = 0; i < slots.length; i++)
+            if (slots[i] >= 0 && !resident.containsKey(i))
+                count++;
+        return count;
+    }
+
+    /**
+     * Releases the scratch file backing this raster.
+     */
+    @Override
+    public void close() throws IOException {
+        resident.values().forEach(tile -> tile.graphics.dispose());
+        resident.clear();
+        Arrays.fill(mappings, null);
+        if (scratch != null) {
+            scratch.close();
+            Files.deleteIfExists(scratchPath);
+            scratch = null;
+        }
+    }
+
+    private void forEachTile(Shape area, Consumer<Graphics2D> op) {
+        Rectangle2D bounds = area.getBounds2D();
+        // antialiasing can touch one pixel past the geometric bounds
+        double minX = Math.max(0, bounds.getMinX() - 1);
+        double minY = Math.max(0, bounds.getMinY() - 1);
+        double maxX = Math.min(width - 1, bounds.getMaxX() + 1);
+        double maxY = Math.min(height - 1, bounds.getMaxY() + 1);
+        if (minX > maxX || minY > maxY)
+            return;
+        for (int ty = (int) minY / TILE_SIZE; ty <= (int) maxY / TILE_SIZE; ty++)
+            for (int tx = (int) minX / TILE_SIZE; tx <= (int) maxX / TILE_SIZE; tx++)
+                if (area.intersects(tx * TILE_SIZE - 1, ty * TILE_SIZE - 1, TILE_SIZE + 2, TILE_SIZE + 2))
+                    op.accept(tile(ty * tilesX + tx).graphics);
+    }
+
+    private Tile tile(int index) {
+        var tile = resident.get(index);
+        if (tile != null)
+            return tile;
+
+        var image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (slots[index] < 0)
+            Arrays.fill(pixels, background.getRGB());
+        else
+            mapping(index).position(0).asIntBuffer().get(pixels);
+
+        Graphics2D g = image.createGraphics();
+        g.translate(-(index % tilesX) * TILE_SIZE, -(index / tilesX) * TILE_SIZE);
+        RenderProfile.FINAL.applyHints(g);
+
+        tile = new Tile(image, g);
+        resident.put(index, tile);
+        return tile;
+    }
+
+    private void pageOut(int index, Tile tile) {
+        tile.graphics.dispose();
+        int[] pixels = ((DataBufferInt) tile.image.getRaster().getDataBuffer()).getData();
+        if (slots[index] < 0)
+            slots[index] = nextSlot++;
+        mapping(index).position(0).asIntBuffer().put(pixels);
+    }
+
+    private MappedByteBuffer mapping(int index) {
+        if (mappings[index] != null)
+            return mappings[index];
+        try {
+            if (scratch == null) {
+                scratchPath = Files.createTempFile("turtle-raster", ".tiles");
+                scratchPath.toFile().deleteOnExit();
+                scratch = FileChannel.open(scratchPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            mappings[index] = scratch.map(FileChannel.MapMode.READ_WRITE, slots[index] * TILE_BYTES, TILE_BYTES);
+            return mappings[index];
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not page out a tile", e);
+        }
+    }
+
+    private record Tile(BufferedImage image, Graphics2D graphics) {
+    }
+}
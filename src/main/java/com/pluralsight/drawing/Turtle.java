@@ -11,6 +11,7 @@ import java.awt.image.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Source: https://codehs.com/sandbox/apcsa/java-turtle
@@ -47,7 +48,7 @@ public class Turtle {
         Color.MAGENTA,
         Color.CYAN,
     };
-    private static int baseIndex;
+    private static final AtomicInteger baseIndex = new AtomicInteger();
     private final World world;
     private final Point2D.Double location;
     private double theta;
@@ -57,6 +58,8 @@ public class Turtle {
     private double shellSize;
     private int pause = 200;
     private double penWidth;
+    /// what the world draws for this turtle, published for the world's thread
+    private volatile Shell shell;
 
     /**
      * Makes a new turtle in the center of the world.
@@ -91,12 +94,12 @@ public class Turtle {
         // this.trail.moveTo(this.location.x, this.location.y); // not used
         theta = 0;
         world = w;
-        color = base[baseIndex];
-        baseIndex = (baseIndex + 1) % base.length;
+        color = base[baseIndex.getAndUpdate(i -> (i + 1) % base.length)];
         penWidth = 1;
         isdown = true;
         shellSize = 8;
 
+        publishShell();
         w.addTurtle(this);
     }
 
@@ -141,7 +144,8 @@ public class Turtle {
         theta += Math.PI * degrees / 180;
         while (theta > Math.PI) theta -= Math.PI * 2;
         while (theta <= -Math.PI) theta += Math.PI * 2;
-        world.turtleMoved();
+        publishShell();
+        world.turtleMoved(this);
         pause();
     }
 
@@ -239,7 +243,8 @@ public class Turtle {
      */
     public void setColor(Color color) {
         this.color = color;
-        world.turtleMoved();
+        publishShell();
+        world.turtleMoved(this);
         pause();
     }
 
@@ -268,7 +273,8 @@ public class Turtle {
 
     public void setShellSize(double shellSize) {
         this.shellSize = shellSize;
-        world.turtleMoved();
+        publishShell();
+        world.turtleMoved(this);
         pause();
     }
 
@@ -288,7 +294,8 @@ public class Turtle {
      */
     public void setHeading(double angle) {
         theta = angle * Math.PI / 180;
-        world.turtleMoved();
+        publishShell();
+        world.turtleMoved(this);
         pause();
     }
 
@@ -315,6 +322,50 @@ public class Turtle {
         cornerGoTo(x + world.centerX, -y + world.centerY);
     }
 
+    /**
+     * Moves the turtle through a run of points, as if {@link #goTo(double, double)} were called for each one.
+     * The whole run is drawn as one path and the turtle only pauses once, at the last point.
+     *
+     * @param xy    The points to visit as x, y pairs, in the same coordinates as goTo
+     * @param count The number of points to visit
+     * @throws IllegalArgumentException if xy holds fewer than count points
+     */
+    public void polyline(double[] xy, int count) {
+        if (count < 0 || count > xy.length / 2)
+            throw new IllegalArgumentException("Count must be between 0 and the number of points given");
+        if (count == 0)
+            return;
+        double[] corner = new double[2 * count + 2];
+        corner[0] = location.x;
+        corner[1] = location.y;
+        int cx = world.centerX;
+        int cy = world.centerY;
+        for (int i = 0; i < count; i++) {
+            corner[2 * i + 2] = xy[2 * i] + cx;
+            corner[2 * i + 3] = -xy[2 * i + 1] + cy;
+        }
+        location.x = corner[2 * count];
+        location.y = corner[2 * count + 1];
+        publishShell();
+        if (isdown)
+            world.drawPolyline(corner, count + 1, penWidth, color);
+        world.turtleMoved(this);
+        pause();
+    }
+
+    /**
+     * Fills an area in one step, without moving the turtle or pausing.
+     * The pen doesn't need to be down.
+     *
+     * @param area  The area to fill, in the same coordinates as goTo
+     * @param color The color to fill it with
+     */
+    public void fill(Shape area, Color color) {
+        // flip from turtle coordinates, +y up from the center, to pixels
+        var toPixels = new AffineTransform(1, 0, 0, -1, world.centerX, world.centerY);
+        world.fillPath(toPixels.createTransformedShape(area), color);
+    }
+
     /**
      * Seconds to pause between each turtle movement
      *
@@ -336,6 +387,7 @@ public class Turtle {
     public void pause() {
         if (pause == 0)
             return;
+        world.advanceClock(pause);
         Thread.sleep(pause);
     }
 
@@ -346,6 +398,27 @@ public class Turtle {
      * @param g the graphics object to draw with
      */
     void _how_world_draw_turtles(Graphics2D g) {
+        _how_world_draw_turtles(g, shell);
+    }
+
+    /**
+     * Returns what the world should draw for this turtle.
+     * Should only be called by com.pluralsight.drawing.World class
+     *
+     * @return the latest published shell
+     */
+    Shell getShell() {
+        return shell;
+    }
+
+    /**
+     * Draws a shell of the turtle.
+     * Should only be called by com.pluralsight.drawing.World class
+     *
+     * @param g     the graphics object to draw with
+     * @param shell the shell to draw, from {@link #getShell()}
+     */
+    void _how_world_draw_turtles(Graphics2D g, Shell shell) {
 
         // // Other way to draw trails; can't change color part-way through though
         // g.setColor(color);
@@ -359,11 +432,11 @@ public class Turtle {
         GeneralPath back = new GeneralPath(); // the bigger shell
         GeneralPath back2 = new GeneralPath(); // the paler inner shell
         GeneralPath body = new GeneralPath(); // the head, legs, and tail
-        double c = Math.cos(theta);
-        double s = Math.sin(theta);
-        double x = location.x;
-        double y = location.y;
-        double w = shellSize;
+        double c = Math.cos(shell.theta);
+        double s = Math.sin(shell.theta);
+        double x = shell.x;
+        double y = shell.y;
+        double w = shell.size;
         Ellipse2D leftEye = new Ellipse2D.Double(x + 1.55 * w * c + 0.15 * w * s - 0.1 * w, y + 1.55 * w * s - 0.15 * w * c - 0.1 * w, 0.2 * w, 0.2 * w);
         Ellipse2D rightEye = new Ellipse2D.Double(x + 1.55 * w * c - 0.15 * w * s - 0.1 * w, y + 1.55 * w * s + 0.15 * w * c - 0.1 * w, 0.2 * w, 0.2 * w);
 
@@ -442,9 +515,9 @@ public class Turtle {
 
         int gap = 48;
         Color midColor = new Color(
-            Math.max(Math.min(color.getRed(), 255 - gap), gap),
-            Math.max(Math.min(color.getGreen(), 255 - gap), gap),
-            Math.max(Math.min(color.getBlue(), 255 - gap), gap)
+            Math.max(Math.min(shell.color.getRed(), 255 - gap), gap),
+            Math.max(Math.min(shell.color.getGreen(), 255 - gap), gap),
+            Math.max(Math.min(shell.color.getBlue(), 255 - gap), gap)
         );
         Color lightColor = new Color(
             midColor.getRed() + gap,
@@ -490,16 +563,35 @@ public class Turtle {
         double oy = location.y;
         location.x = x;
         location.y = y;
+        publishShell();
         if (isdown) {
             world.drawLine(location, ox, oy, penWidth, color);
-            world.turtleMoved();
+            world.turtleMoved(this);
             pause();
         } else {
-            world.turtleMoved();
+            world.turtleMoved(this);
             pause();
         }
 
     }
 
+    private void publishShell() {
+        shell = new Shell(location.x, location.y, theta, shellSize, color);
+    }
 
+    /**
+     * An immutable copy of everything needed to draw a turtle's shell.
+     */
+    record Shell(double x, double y, double theta, double size, Color color) {
+        /**
+         * @return the pixels this shell can touch, with room for antialiasing
+         */
+        Rectangle bounds() {
+            // the head reaches 1.8 sizes from the center; the rest of the body less
+            double r = size * 1.8 + 2;
+            int x0 = (int) Math.floor(x - r);
+            int y0 = (int) Math.floor(y - r);
+            return new Rectangle(x0, y0, (int) Math.ceil(x + r) - x0 + 1, (int) Math.ceil(y + r) - y0 + 1);
+        }
+    }
 }
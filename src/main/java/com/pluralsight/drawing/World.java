@@ -12,6 +12,8 @@ import java.awt.geom.*;
 import java.awt.image.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * Source: https://codehs.com/sandbox/apcsa/java-turtle
@@ -37,16 +39,46 @@ import java.util.*;
  * basic.saveAs("basicWorld.png");
  * fancy.saveAs("fancyWorld.png");
  * </pre>
+ * <p>
+ * Turtles may be driven from any number of threads.
+ * Their drawing is queued and applied by the Swing event dispatch thread,
+ * which is the only thread that touches the World's images.
  *
  * @author Luther Tychonievich. Released to the public domain.
  */
 public class World extends JFrame {
     /// version number based on date of creation
     private static final long serialVersionUID = 20130902L;
-    private final ArrayList<Turtle> turtles;
+    /// size in pixels of the square tiles used for checkpoints
+    private static final int TILE_SIZE = 64;
+    /// queued commands after which producers wait for the queue to drain
+    private static final int MAX_PENDING = 10_000;
+    /// size in pixels of the grid cells used to find turtles near a change
+    private static final int SHELL_CELL_SIZE = 64;
+    /// canvases of other sizes kept for reuse after a resize
+    private static final int MAX_SPARE_CANVASES = 2;
+    private final java.util.List<Turtle> turtles = new CopyOnWriteArrayList<>();
     private final Color backgroundColor;
-    public int centerX;
-    public int centerY;
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Set<Turtle> movedTurtles = ConcurrentHashMap.newKeySet();
+    /// the order shells are stacked in, which is the order turtles were added
+    private final Map<Turtle, Integer> shellOrder = new ConcurrentHashMap<>();
+    private final AtomicInteger nextShellOrder = new AtomicInteger();
+    /// the shell each turtle currently has on the overlay
+    private final Map<Turtle, Turtle.Shell> drawnShells = new HashMap<>();
+    private final Map<Long, Set<Turtle>> shellGrid = new HashMap<>();
+    private volatile boolean shellsVisible = true;
+    private volatile FrameRecorder recorder;
+    /// the region of the screen which is out of date
+    private Rectangle damage;
+    public volatile int centerX;
+    public volatile int centerY;
+    /// recently used canvases, most recent first
+    private final Deque<Canvas> spareCanvases = new ArrayDeque<>();
+    private Canvas canvas;
+    private JLabel view;
     private BufferedImage overlay;
     private BufferedImage ground;
     private BufferedImage back;
@@ -55,6 +87,13 @@ public class World extends JFrame {
     private Graphics2D gg;
     private Graphics2D bg;
     private Graphics2D fg;
+    /// draws thin lines straight into the ground's pixels, or null if the profile uses Java2D for everything
+    private PixelRasterizer pixels;
+    private int tilesX;
+    private int tilesY;
+    private BitSet dirtyTiles;
+    private RasterCheckpoint lastCheckpoint;
+    private RenderProfile renderProfile;
 
 
     /**
@@ -69,9 +108,18 @@ public class World extends JFrame {
     }
 
     public World(int width, int height, Color backgroundColor) {
+        this(width, height, backgroundColor, RenderProfile.FINAL);
+    }
+
+    public World(int width, int height, RenderProfile renderProfile) {
+        this(width, height, Color.WHITE, renderProfile);
+    }
+
+    public World(int width, int height, Color backgroundColor, RenderProfile renderProfile) {
         super("Turtle World");
 
         this.backgroundColor = backgroundColor;
+        this.renderProfile = renderProfile;
         resizeWorld(width, height);
 
         pack();
@@ -90,48 +138,261 @@ public class World extends JFrame {
             public void keyReleased(KeyEvent arg0) {
             }
         });
-
-        turtles = new ArrayList<Turtle>();
     }
 
     public final void resizeWorld(int width, int height) {
+        runOnOwner(() -> allocate(width, height));
+    }
+
+    /**
+     * Gives the world a blank canvas of the given size.
+     * The current canvas is cleared and kept if it is already that size;
+     * otherwise it is set aside in case the world is resized back.
+     */
+    private void allocate(int width, int height) {
         centerX = width / 2;
         centerY = height / 2;
 
-        overlay = new BufferedImage(2 * centerX, 2 * centerY, BufferedImage.TYPE_INT_ARGB);
-        ground = new BufferedImage(2 * centerX, 2 * centerY, BufferedImage.TYPE_INT_ARGB);
-        back = new BufferedImage(2 * centerX, 2 * centerY, BufferedImage.TYPE_INT_ARGB);
-        front = new BufferedImage(2 * centerX, 2 * centerY, BufferedImage.TYPE_INT_ARGB);
-
-        og = (Graphics2D) overlay.getGraphics();
-        gg = (Graphics2D) ground.getGraphics();
-        bg = (Graphics2D) back.getGraphics();
-        fg = (Graphics2D) front.getGraphics();
-        og.setBackground(new Color(0, 0, 0, 0));
-        gg.setBackground(backgroundColor);
-
-        Graphics2D[] gs = {og, gg};
-        for (Graphics2D g : gs) {
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        }
+        if (canvas == null || !canvas.fits(2 * centerX, 2 * centerY, renderProfile)) {
+            if (canvas != null) {
+                spareCanvases.addFirst(canvas);
+                if (spareCanvases.size() > MAX_SPARE_CANVASES)
+                    spareCanvases.removeLast().dispose();
+            }
+            canvas = null;
+            for (Iterator<Canvas> it = spareCanvases.iterator(); it.hasNext(); ) {
+                Canvas spare = it.next();
+                if (spare.fits(2 * centerX, 2 * centerY, renderProfile)) {
+                    it.remove();
+                    canvas = spare;
+                    break;
+                }
+            }
+            if (canvas == null)
+                canvas = new Canvas(2 * centerX, 2 * centerY, backgroundColor, renderProfile);
 
-        setContentPane(new JLabel(new ImageIcon(front)));
+            overlay = canvas.overlay;
+            ground = canvas.ground;
+            back = canvas.back;
+            front = canvas.front;
+            og = canvas.og;
+            gg = canvas.gg;
+            bg = canvas.bg;
+            fg = canvas.fg;
+            pixels = canvas.pixels;
+
+            tilesX = (ground.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+            tilesY = (ground.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+            dirtyTiles = new BitSet(tilesX * tilesY);
+
+            if (view == null) {
+                view = new JLabel(new ImageIcon(front));
+                setContentPane(view);
+            } else {
+                view.setIcon(new ImageIcon(front));
+                view.revalidate();
+            }
+        }
+        lastCheckpoint = null;
 
         clearOverlay();
-        erase();
+        drawnShells.clear();
+        shellGrid.clear();
+        if (shellsVisible)
+            movedTurtles.addAll(turtles);
+        eraseGround();
+
+        if (isVisible())
+            blit();
+        else {
+            repaint();
+            setVisible(true);
+        }
+    }
 
-        repaint();
-        setVisible(true);
+    /**
+     * Returns the color shown where nothing has been drawn.
+     *
+     * @return The background color
+     */
+    public Color getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * Returns the profile used to draw paths and turtles.
+     *
+     * @return The current render profile
+     */
+    public RenderProfile getRenderProfile() {
+        return renderProfile;
+    }
+
+    /**
+     * Changes the profile used to draw paths and turtles.
+     * Existing paths are kept.
+     *
+     * @param renderProfile The new render profile
+     */
+    public void setRenderProfile(RenderProfile renderProfile) {
+        runOnOwner(() -> {
+            if (renderProfile == this.renderProfile)
+                return;
+            BufferedImage old = ground;
+            this.renderProfile = renderProfile;
+            allocate(old.getWidth(), old.getHeight());
+            gg.drawImage(old, 0, 0, null);
+            updateOverlay();
+            blit();
+        });
+    }
+
+    /**
+     * Checks whether turtles' shells are drawn.
+     *
+     * @return true if shells are drawn, false otherwise
+     */
+    public boolean isShellsVisible() {
+        return shellsVisible;
+    }
+
+    /**
+     * Shows or hides every turtle's shell.
+     * Hiding shells makes turtle movement cheaper, which matters with thousands of turtles.
+     *
+     * @param shellsVisible true to draw shells, false to hide them
+     */
+    public void setShellsVisible(boolean shellsVisible) {
+        runOnOwner(() -> {
+            if (shellsVisible == this.shellsVisible)
+                return;
+            this.shellsVisible = shellsVisible;
+            if (shellsVisible)
+                movedTurtles.addAll(turtles);
+            else {
+                movedTurtles.clear();
+                drawnShells.clear();
+                shellGrid.clear();
+                clearOverlay();
+                damageAll();
+            }
+            updateOverlay();
+            blit();
+        });
+    }
+
+    /**
+     * Replaces all existing paths with an image, such as a painting rendered off screen.
+     * The image is stretched to fill the world.
+     * This operation is asynchronous, so the image must not be changed afterwards.
+     *
+     * @param image The image to show
+     */
+    public void replacePaths(BufferedImage image) {
+        submit(() -> {
+            gg.clearRect(0, 0, ground.getWidth(), ground.getHeight());
+            gg.drawImage(image, 0, 0, ground.getWidth(), ground.getHeight(), null);
+            dirtyTiles.set(0, tilesX * tilesY);
+            damageAll();
+        });
+        throttle();
+    }
+
+    /**
+     * Replaces the paths in a region with an image, such as part of a painting rendered off screen.
+     * This operation is asynchronous, so the image must not be changed afterwards.
+     *
+     * @param image The image to show, at the same scale as the world
+     * @param x     The x coordinate of the region's top left corner, in pixels
+     * @param y     The y coordinate of the region's top left corner, in pixels
+     */
+    public void replacePaths(BufferedImage image, int x, int y) {
+        submit(() -> {
+            int w = image.getWidth();
+            int h = image.getHeight();
+            gg.clearRect(x, y, w, h);
+            gg.drawImage(image, x, y, null);
+            markDirty(x, y, x + w - 1, y + h - 1);
+        });
+        throttle();
     }
 
     /**
      * Erases all existing paths
      */
     public void erase() {
+        runOnOwner(() -> {
+            eraseGround();
+            blit();
+        });
+    }
+
+    private void eraseGround() {
         gg.clearRect(0, 0, ground.getWidth(), ground.getHeight());
+        dirtyTiles.set(0, tilesX * tilesY);
+        damageAll();
+    }
+
+    /**
+     * Waits until everything turtles have drawn so far is on screen.
+     */
+    public void flush() {
+        runOnOwner(() -> {
+        });
+    }
+
+    /**
+     * Takes a snapshot of all existing paths.
+     * Only the tiles drawn on since the previous checkpoint are copied;
+     * the rest are shared with that checkpoint.
+     *
+     * @return The snapshot
+     */
+    public RasterCheckpoint checkpoint() {
+        return callOnOwner(this::takeCheckpoint);
+    }
+
+    private RasterCheckpoint takeCheckpoint() {
+        int[][] tiles = lastCheckpoint == null ? new int[tilesX * tilesY][] : lastCheckpoint.tiles.clone();
+        WritableRaster raster = ground.getRaster();
+        for (int i = dirtyTiles.nextSetBit(0); i >= 0; i = dirtyTiles.nextSetBit(i + 1)) {
+            Rectangle r = tileBounds(i);
+            tiles[i] = (int[]) raster.getDataElements(r.x, r.y, r.width, r.height, null);
+        }
+        dirtyTiles.clear();
+        lastCheckpoint = new RasterCheckpoint(ground.getWidth(), ground.getHeight(), ground.getType(), tiles);
+        return lastCheckpoint;
+    }
+
+    /**
+     * Restores all paths to how they were when a snapshot was taken.
+     * Only the tiles which differ from the snapshot are copied back.
+     *
+     * @param checkpoint The snapshot to restore
+     * @return true if the snapshot was restored, false if it was taken from a world of a different size or profile
+     */
+    public boolean restore(RasterCheckpoint checkpoint) {
+        return callOnOwner(() -> restoreCheckpoint(checkpoint));
+    }
+
+    private boolean restoreCheckpoint(RasterCheckpoint checkpoint) {
+        if (checkpoint.width != ground.getWidth() || checkpoint.height != ground.getHeight() || checkpoint.type != ground.getType())
+            return false;
+        WritableRaster raster = ground.getRaster();
+        for (int i = 0; i < checkpoint.tiles.length; i++) {
+            boolean same = lastCheckpoint != null
+                && lastCheckpoint.tiles[i] == checkpoint.tiles[i]
+                && !dirtyTiles.get(i);
+            if (same)
+                continue;
+            Rectangle r = tileBounds(i);
+            raster.setDataElements(r.x, r.y, r.width, r.height, checkpoint.tiles[i]);
+        }
+        dirtyTiles.clear();
+        lastCheckpoint = checkpoint;
+        damageAll();
+        blit();
+        return true;
     }
 
     /**
@@ -147,7 +408,7 @@ public class World extends JFrame {
                 throw new IllegalArgumentException("The filename must end in a valid image extension, like .png or .jpg");
             String ext = filename.substring(dot + 1).toLowerCase();
             File f = new File(filename);
-            ImageIO.write(front, ext, f);
+            callOnOwner(() -> ImageIO.write(front, ext, f));
         } catch (Throwable t) {
             System.err.println("Error saving file: " + t.getMessage());
         }
@@ -164,48 +425,247 @@ public class World extends JFrame {
      * Should only called by the Turtle class constructor
      */
     void addTurtle(Turtle t) {
+        shellOrder.put(t, nextShellOrder.getAndIncrement());
         turtles.add(t);
-        turtleMoved();
+        turtleMoved(t);
     }
 
     /**
      * Should only called by Turtle class methods
      */
     void drawLine(Point2D p1, Point2D p2, double width, Color color) {
-        // draw the line
-        gg.setColor(color);
-        gg.setStroke(new BasicStroke((float) width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        Line2D.Double line = new Line2D.Double(p1, p2);
-        gg.draw(line);
+        drawLine(p1.getX(), p1.getY(), p2.getX(), p2.getY(), width, color);
+    }
 
-        // show the drawn lines
-        blit();
+    private void drawLine(double x1, double y1, double x2, double y2, double width, Color color) {
+        submit(() -> {
+            // draw the line
+            if (pixels == null || !pixels.drawLine(x1, y1, x2, y2, width, color)) {
+                gg.setColor(color);
+                gg.setStroke(new BasicStroke((float) width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                gg.draw(new Line2D.Double(x1, y1, x2, y2));
+            }
+            double pad = width / 2 + 2;
+            markDirty(Math.min(x1, x2) - pad, Math.min(y1, y2) - pad, Math.max(x1, x2) + pad, Math.max(y1, y2) + pad);
+        });
+        throttle();
     }
 
+    /**
+     * Shows the damaged region of the ground and overlay.
+     */
     private void blit() {
-        bg.drawImage(ground, 0, 0, null);
-        bg.drawImage(overlay, 0, 0, null);
-        fg.drawImage(back, 0, 0, this);
-        repaint();
+        if (damage == null)
+            return;
+        Rectangle r = damage.intersection(new Rectangle(ground.getWidth(), ground.getHeight()));
+        damage = null;
+        if (r.isEmpty())
+            return;
+        int x2 = r.x + r.width;
+        int y2 = r.y + r.height;
+        bg.drawImage(ground, r.x, r.y, x2, y2, r.x, r.y, x2, y2, null);
+        bg.drawImage(overlay, r.x, r.y, x2, y2, r.x, r.y, x2, y2, null);
+        fg.drawImage(back, r.x, r.y, x2, y2, r.x, r.y, x2, y2, this);
+        getContentPane().repaint(r.x, r.y, r.width, r.height);
+    }
+
+    private void damage(Rectangle r) {
+        if (damage == null)
+            damage = new Rectangle(r);
+        else
+            damage.add(r);
+    }
+
+    private void damageAll() {
+        damage(new Rectangle(ground.getWidth(), ground.getHeight()));
+    }
+
+    /**
+     * Should only called by Turtle class methods
+     *
+     * @param xy    the points to connect, as x, y pairs in pixels; not modified afterwards
+     * @param count the number of points to connect
+     */
+    void drawPolyline(double[] xy, int count, double width, Color color) {
+        submit(() -> {
+            double minX = xy[0];
+            double minY = xy[1];
+            double maxX = xy[0];
+            double maxY = xy[1];
+            for (int i = 1; i < count; i++) {
+                minX = Math.min(minX, xy[2 * i]);
+                minY = Math.min(minY, xy[2 * i + 1]);
+                maxX = Math.max(maxX, xy[2 * i]);
+                maxY = Math.max(maxY, xy[2 * i + 1]);
+            }
+            if (pixels == null || !pixels.drawPolyline(xy, count, width, color)) {
+                Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, count);
+                path.moveTo(xy[0], xy[1]);
+                for (int i = 1; i < count; i++)
+                    path.lineTo(xy[2 * i], xy[2 * i + 1]);
+                gg.setColor(color);
+                gg.setStroke(new BasicStroke((float) width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                gg.draw(path);
+            }
+            double pad = width / 2 + 2;
+            markDirty(minX - pad, minY - pad, maxX + pad, maxY + pad);
+        });
+        throttle();
+    }
+
+    /**
+     * Should only called by Turtle class methods
+     *
+     * @param path the area to fill, in pixels; not modified afterwards
+     */
+    void fillPath(Shape path, Color color) {
+        submit(() -> {
+            if (pixels == null || !pixels.fill(path, null, color)) {
+                gg.setColor(color);
+                gg.fill(path);
+            }
+            Rectangle2D bounds = path.getBounds2D();
+            markDirty(bounds.getMinX() - 1, bounds.getMinY() - 1, bounds.getMaxX() + 1, bounds.getMaxY() + 1);
+        });
+        throttle();
     }
 
     /**
      * Should only called by Turtle class methods
      */
     void drawLine(Point2D p1, double nx, double ny, double width, Color color) {
-        drawLine(p1, new Point2D.Double(nx, ny), width, color);
+        drawLine(p1.getX(), p1.getY(), nx, ny, width, color);
     }
 
     /**
      * Should only called by Turtle class methods
+     *
+     * @param millis how long the animation pauses with everything queued so far on screen
      */
-    void turtleMoved() {
-        // show the drawn lines
-        clearOverlay();
-        // add the turtles over top
-        for (Turtle t : turtles) t._how_world_draw_turtles(og);
-        // force the OS to show what's shown
-        blit();
+    void advanceClock(int millis) {
+        if (recorder == null)
+            return;
+        submit(() -> {
+            // the recorder may have been detached while this was queued
+            if (recorder != null)
+                recorder.advance(millis);
+        });
+        throttle();
+    }
+
+    /**
+     * Starts sending frames to a recorder, in place of any other.
+     * Should only be called by FrameRecorder.
+     */
+    void setRecorder(FrameRecorder recorder) {
+        runOnOwner(() -> this.recorder = recorder);
+    }
+
+    /**
+     * Stops sending frames to a recorder, then lets it take its last frame.
+     * Should only be called by FrameRecorder.
+     */
+    void detachRecorder(FrameRecorder recorder) {
+        runOnOwner(() -> {
+            if (this.recorder == recorder)
+                this.recorder = null;
+            recorder.finish();
+        });
+    }
+
+    /**
+     * Draws what the world currently shows, paths and shells, at the same size.
+     * Must only be called on the event dispatch thread.
+     */
+    void composite(Graphics2D g) {
+        updateOverlay();
+        g.drawImage(ground, 0, 0, null);
+        g.drawImage(overlay, 0, 0, null);
+    }
+
+    /**
+     * Should only called by Turtle class methods
+     */
+    void turtleMoved(Turtle t) {
+        if (!shellsVisible)
+            return;
+        // however often a turtle moves before the next drain, its shell is only redrawn once
+        movedTurtles.add(t);
+        scheduleDrain();
+    }
+
+    /**
+     * Redraws the shells of the turtles which moved.
+     * Only the old and new footprints of those shells are cleared,
+     * along with any other shells overlapping them.
+     */
+    private void updateOverlay() {
+        if (movedTurtles.isEmpty())
+            return;
+        var regions = new ArrayList<Rectangle>();
+        for (Iterator<Turtle> it = movedTurtles.iterator(); it.hasNext(); ) {
+            Turtle t = it.next();
+            it.remove();
+            Turtle.Shell old = drawnShells.get(t);
+            if (old != null) {
+                regions.add(old.bounds());
+                indexShell(t, old.bounds(), false);
+            }
+            Turtle.Shell shell = t.getShell();
+            drawnShells.put(t, shell);
+            indexShell(t, shell.bounds(), true);
+            regions.add(shell.bounds());
+        }
+
+        // clear and redraw one region at a time so overlapping regions don't draw a shell twice
+        for (Rectangle region : regions) {
+            og.clearRect(region.x, region.y, region.width, region.height);
+            og.setClip(region);
+            for (Turtle t : shellsNear(region))
+                t._how_world_draw_turtles(og, drawnShells.get(t));
+            og.setClip(null);
+            damage(region);
+        }
+    }
+
+    private void indexShell(Turtle t, Rectangle bounds, boolean add) {
+        int cx0 = Math.floorDiv(bounds.x, SHELL_CELL_SIZE);
+        int cy0 = Math.floorDiv(bounds.y, SHELL_CELL_SIZE);
+        int cx1 = Math.floorDiv(bounds.x + bounds.width - 1, SHELL_CELL_SIZE);
+        int cy1 = Math.floorDiv(bounds.y + bounds.height - 1, SHELL_CELL_SIZE);
+        for (int cy = cy0; cy <= cy1; cy++)
+            for (int cx = cx0; cx <= cx1; cx++) {
+                long key = (long) cx << 32 | cy & 0xFFFFFFFFL;
+                if (add)
+                    shellGrid.computeIfAbsent(key, k -> new HashSet<>()).add(t);
+                else {
+                    Set<Turtle> cell = shellGrid.get(key);
+                    if (cell != null && cell.remove(t) && cell.isEmpty())
+                        shellGrid.remove(key);
+                }
+            }
+    }
+
+    /**
+     * Finds the turtles whose shells overlap a region, in the order they should be drawn.
+     */
+    private java.util.List<Turtle> shellsNear(Rectangle region) {
+        var found = new HashSet<Turtle>();
+        int cx0 = Math.floorDiv(region.x, SHELL_CELL_SIZE);
+        int cy0 = Math.floorDiv(region.y, SHELL_CELL_SIZE);
+        int cx1 = Math.floorDiv(region.x + region.width - 1, SHELL_CELL_SIZE);
+        int cy1 = Math.floorDiv(region.y + region.height - 1, SHELL_CELL_SIZE);
+        for (int cy = cy0; cy <= cy1; cy++)
+            for (int cx = cx0; cx <= cx1; cx++) {
+                Set<Turtle> cell = shellGrid.get((long) cx << 32 | cy & 0xFFFFFFFFL);
+                if (cell != null)
+                    for (Turtle t : cell)
+                        if (drawnShells.get(t).bounds().intersects(region))
+                            found.add(t);
+            }
+        var ordered = new ArrayList<>(found);
+        ordered.sort(Comparator.comparingInt(shellOrder::get));
+        return ordered;
     }
 
     /**
@@ -215,8 +675,155 @@ public class World extends JFrame {
      * @param placement the Affine Transform to use in drawing it
      */
     void drawImage(Image img, AffineTransform placement) {
-        gg.drawImage(img, placement, this);
-        blit();
+        submit(() -> {
+            gg.drawImage(img, placement, this);
+            Rectangle2D bounds = placement
+                .createTransformedShape(new Rectangle(img.getWidth(this), img.getHeight(this)))
+                .getBounds2D();
+            markDirty(bounds.getMinX() - 1, bounds.getMinY() - 1, bounds.getMaxX() + 1, bounds.getMaxY() + 1);
+        });
+        throttle();
+    }
+
+    /**
+     * Queues a drawing command for the event dispatch thread.
+     * Safe to call from any thread.
+     */
+    private void submit(Runnable command) {
+        commands.add(command);
+        pending.incrementAndGet();
+        scheduleDrain();
+    }
+
+    /**
+     * Makes a fast turtle wait rather than queue up unbounded work.
+     */
+    private void throttle() {
+        if (pending.get() > MAX_PENDING && !SwingUtilities.isEventDispatchThread())
+            flush();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true))
+            SwingUtilities.invokeLater(this::drain);
+    }
+
+    /**
+     * Runs every queued command, then shows the result once.
+     * Must only be called on the event dispatch thread.
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        boolean changed = false;
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            pending.decrementAndGet();
+            command.run();
+            changed = true;
+        }
+        if (!movedTurtles.isEmpty() && ground != null) {
+            updateOverlay();
+            changed = true;
+        }
+        // force the OS to show what's shown
+        if (changed && ground != null)
+            blit();
+    }
+
+    private void runOnOwner(Runnable action) {
+        callOnOwner(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs an action on the event dispatch thread after everything queued before it,
+     * and waits for its result.
+     */
+    private <T> T callOnOwner(Callable<T> action) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            drain();
+            return action.call();
+        }
+        var task = new FutureTask<>(action);
+        submit(task);
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re)
+                throw re;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void markDirty(double minX, double minY, double maxX, double maxY) {
+        int w = ground.getWidth();
+        int h = ground.getHeight();
+        if (maxX < 0 || maxY < 0 || minX >= w || minY >= h)
+            return;
+        int tx0 = (int) Math.max(0, minX) / TILE_SIZE;
+        int ty0 = (int) Math.max(0, minY) / TILE_SIZE;
+        int tx1 = (int) Math.min(w - 1, maxX) / TILE_SIZE;
+        int ty1 = (int) Math.min(h - 1, maxY) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++)
+            dirtyTiles.set(ty * tilesX + tx0, ty * tilesX + tx1 + 1);
+        int x0 = (int) Math.floor(minX);
+        int y0 = (int) Math.floor(minY);
+        damage(new Rectangle(x0, y0, (int) Math.ceil(maxX) - x0 + 1, (int) Math.ceil(maxY) - y0 + 1));
+    }
+
+    /**
+     * The images a world draws on, with their graphics.
+     */
+    private static final class Canvas {
+        final RenderProfile profile;
+        final BufferedImage overlay;
+        final BufferedImage ground;
+        final BufferedImage back;
+        final BufferedImage front;
+        final Graphics2D og;
+        final Graphics2D gg;
+        final Graphics2D bg;
+        final Graphics2D fg;
+        final PixelRasterizer pixels;
+
+        Canvas(int width, int height, Color backgroundColor, RenderProfile profile) {
+            this.profile = profile;
+            overlay = profile.createOverlay(width, height);
+            ground = profile.createGround(width, height, backgroundColor);
+            back = profile.createGround(width, height, backgroundColor);
+            front = profile.createGround(width, height, backgroundColor);
+
+            og = (Graphics2D) overlay.getGraphics();
+            gg = (Graphics2D) ground.getGraphics();
+            bg = (Graphics2D) back.getGraphics();
+            fg = (Graphics2D) front.getGraphics();
+            pixels = profile.createRasterizer(ground);
+            og.setBackground(new Color(0, 0, 0, 0));
+            gg.setBackground(backgroundColor);
+
+            Graphics2D[] gs = {og, gg};
+            for (Graphics2D g : gs)
+                profile.applyHints(g);
+        }
+
+        boolean fits(int width, int height, RenderProfile profile) {
+            return ground.getWidth() == width && ground.getHeight() == height && this.profile == profile;
+        }
+
+        void dispose() {
+            og.dispose();
+            gg.dispose();
+            bg.dispose();
+            fg.dispose();
+        }
+    }
+
+    private Rectangle tileBounds(int tile) {
+        int x = tile % tilesX * TILE_SIZE;
+        int y = tile / tilesX * TILE_SIZE;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, ground.getWidth() - x), Math.min(TILE_SIZE, ground.getHeight() - y));
     }
 
 }
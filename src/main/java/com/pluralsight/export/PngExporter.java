@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.export;
+
+import com.pluralsight.*;
+import com.pluralsight.drawing.*;
+
+import javax.imageio.*;
+import java.awt.Color;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes paintings as PNG images, at several sizes at once.
+ * <p>
+ * Every size is drawn by {@link Painting#render(RenderProfile, Color, double...)},
+ * which traces the shapes once for all of them and draws the images in parallel.
+ * The images are encoded one after another.
+ */
+@SuppressWarnings("UtilityClass")
+public final class PngExporter {
+    private PngExporter() {
+    }
+
+    /**
+     * Exports a painting to PNG files at full quality on a white background.
+     *
+     * @param painting The painting to export
+     * @param scales   The file to write for each size, and its size relative to the painting's
+     * @throws IOException if a file couldn't be written
+     */
+    public static void export(Painting painting, Map<File, Double> scales) throws IOException {
+        export(painting, RenderProfile.FINAL, Color.WHITE, scales);
+    }
+
+    /**
+     * Exports a painting to PNG files.
+     *
+     * @param painting   The painting to export
+     * @param profile    The profile to draw with
+     * @param background The color of the images where nothing is drawn
+     * @param scales     The file to write for each size, and its size relative to the painting's
+     * @throws IOException if a file couldn't be written
+     */
+    public static void export(Painting painting, RenderProfile profile, Color background, Map<File, Double> scales)
+        throws IOException {
+        var files = new ArrayList<File>(scales.size());
+        double[] sizes = new double[scales.size()];
+        for (var entry : scales.entrySet()) {
+            sizes[files.size()] = entry.getValue();
+            files.add(entry.getKey());
+        }
+        List<BufferedImage> images;
+        try {
+            images = painting.render(profile, background, sizes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering");
+        }
+        for (int i = 0; i < files.size(); i++)
+            if (!ImageIO.write(images.get(i), "png", files.get(i)))
+                throw new IOException("No PNG writer is available");
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.export;
+
+import com.pluralsight.*;
+import com.pluralsight.shapes.*;
+
+import java.awt.Color;
+import java.io.*;
+import java.nio.charset.*;
+
+/**
+ * Writes paintings as SVG documents.
+ * <p>
+ * Shapes are written one at a time straight from the painting's shape list,
+ * so exporting never needs a canvas-sized buffer.
+ */
+@SuppressWarnings("UtilityClass")
+public final class SvgExporter {
+    private SvgExporter() {
+    }
+
+    /**
+     * Exports a painting to an SVG file.
+     *
+     * @param painting The painting to export
+     * @param file     The file to write
+     * @return true if the file was written, false otherwise
+     */
+    public static boolean export(Painting painting, File file) {
+        try (var out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            export(painting, out);
+            return true;
+        } catch (IOException unused) {
+            return false;
+        }
+    }
+
+    /**
+     * Exports a painting as an SVG document.
+     * The writer is not closed.
+     *
+     * @param painting The painting to export
+     * @param out      The writer to write the document to
+     * @throws IOException if the writer fails, or a shape has a coordinate or size too large to write
+     */
+    public static void export(Painting painting, Writer out) throws IOException {
+        // Turtle coordinates are centered with +y up, the same way World places them
+        int centerX = painting.width / 2;
+        int centerY = painting.height / 2;
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        out.write(Integer.toString(painting.width));
+        out.write("\" height=\"");
+        out.write(Integer.toString(painting.height));
+        out.write("\" viewBox=\"0 0 ");
+        out.write(Integer.toString(painting.width));
+        out.write(' ');
+        out.write(Integer.toString(painting.height));
+        out.write("\">\n<g fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+
+        for (Shape<?> shape : painting.shapes) {
+            double x = centerX + shape.originX;
+            double y = centerY - shape.originY;
+
+            if (shape instanceof Circle circle) {
+                out.write("<circle cx=\"");
+                writeNumber(out, x);
+                out.write("\" cy=\"");
+                writeNumber(out, y);
+                out.write("\" r=\"");
+                writeNumber(out, circle.radius);
+            } else if (shape instanceof Rect rect) {
+                out.write("<rect x=\"");
+                writeNumber(out, Math.min(x, x + rect.width));
+                out.write("\" y=\"");
+                writeNumber(out, Math.min(y, y + rect.height));
+                out.write("\" width=\"");
+                writeNumber(out, Math.abs(rect.width));
+                out.write("\" height=\"");
+                writeNumber(out, Math.abs(rect.height));
+            } else if (shape instanceof RegularPolygon polygon) {
+                out.write("<polygon points=\"");
+                double[] xy = polygon.vertices();
+                for (int i = 0; i < polygon.numSides; i++) {
+                    if (i > 0)
+                        out.write(' ');
+                    writeNumber(out, centerX + xy[2 * i]);
+                    out.write(',');
+                    writeNumber(out, centerY - xy[2 * i + 1]);
+                }
+            } else
+                throw new IllegalArgumentException("Unknown shape type ${shape.getClass().getName()}");
+
+            // the group leaves shapes unfilled unless they say otherwise
+            if (shape.fillColor != null)
+                writePaint(out, "fill", shape.fillColor);
+            writePaint(out, "stroke", shape.color);
+            out.write("\" stroke-width=\"");
+            writeNumber(out, shape.strokeWidth);
+            out.write("\"/>\n");
+        }
+
+        out.write("</g>\n</svg>\n");
+        out.flush();
+    }
+
+    /**
+     * Closes the previous attribute's value and writes a paint attribute, with its opacity if it isn't opaque.
+     *
+     * @param attribute {@code fill} or {@code stroke}
+     */
+    private static void writePaint(Writer out, String attribute, Color color) throws IOException {
+        out.write("\" ");
+        out.write(attribute);
+        out.write("=\"#");
+        String hex = Integer.toHexString(color.getRGB() & 0xFFFFFF);
+        for (int i = hex.length(); i < 6; i++)
+            out.write('0');
+        out.write(hex);
+        if (color.getAlpha() != 255) {
+            out.write("\" ");
+            out.write(attribute);
+            out.write("-opacity=\"");
+            writeNumber(out, color.getAlpha() / 255.0);
+        }
+    }
+
+    /**
+     * @throws IOException if the value is infinite or NaN, which SVG has no way to write
+     */
+    private static void writeNumber(Writer out, double value) throws IOException {
+        if (!Double.isFinite(value))
+            throw new IOException("Can't write $value in SVG");
+        if (value == (long) value)
+            out.write(Long.toString((long) value));
+        else
+            out.write(Double.toString(value));
+    }
+}
@@ -8,59 +8,130 @@ import com.pluralsight.drawing.*;
 import manifold.ext.props.rt.api.*;
 import org.jetbrains.annotations.*;
 
+import java.awt.Color;
 import java.awt.geom.*;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represents a circle with a specific radius.
  * This shape's origin is in its center.
  */
 public final class Circle extends Shape<Circle> {
+    /**
+     * How far in pixels a circle's segments may stray from the true circle when no tolerance is given.
+     * Antialiasing can't show an error this small, so the segments can't be told from a true circle.
+     */
+    public static final double DEFAULT_TOLERANCE = 0.25;
+    private static final int MIN_SEGMENTS = 8;
+    private static final int MAX_SEGMENTS = 1 << 16;
+    /// larger unit circles are rare enough to compute each time rather than keep
+    private static final int MAX_CACHED_SEGMENTS = 4096;
+    private static final Map<Integer, double[]> unitCircles = new ConcurrentHashMap<>();
     /**
      * The radius of this circle.
      */
-    @var
-    @set(PropOption.Private)
-    public double radius = 10;
+    @val
+    public final double radius;
 
     /**
      * Creates a new Circle with default values.
      */
     public Circle() {
+        radius = 10;
     }
 
-    private Circle(Circle copied) {
-        super(copied);
-        radius = copied.radius;
+    /**
+     * Creates a new Circle.
+     *
+     * @param color       The color used to draw the circle
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the circle's center
+     * @param originY     The y coordinate of the circle's center
+     * @param radius      The radius
+     */
+    public Circle(Color color, double strokeWidth, double originX, double originY, double radius) {
+        this(color, null, strokeWidth, originX, originY, radius);
     }
 
-    @SuppressWarnings("ReassignedVariable")
-    // See https://en.wikipedia.org/wiki/Midpoint_circle_algorithm
-    private static List<Point2D> circlePoints(double r) {
-        var pts = new ArrayList<Point2D>((int) r);
-        var t1 = r / 16;
-        var x = (int) r;
-        var y = 0;
-        while (x >= y) {
-            pts.add(new Point2D.Double(x, y));
-            y++;
-            t1 += y;
-            var t2 = t1 - x;
-            if (t2 >= 0) {
-                t1 = t2;
-                x--;
-            }
-        }
+    /**
+     * Creates a new filled Circle.
+     *
+     * @param color       The color used to draw the circle
+     * @param fillColor   The color used to fill the circle, or null to only outline it
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the circle's center
+     * @param originY     The y coordinate of the circle's center
+     * @param radius      The radius
+     * @throws IllegalArgumentException if the radius or stroke width is negative or a value isn't finite
+     */
+    public Circle(Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY,
+                  double radius) {
+        super(color, fillColor, strokeWidth, originX, originY);
+        this.radius = requireSize("Radius", radius);
+    }
 
-        pts.ensureCapacity(pts.size() << 3);
-        for (int i = pts.size() - 1; i >= 0; i--)
-            pts.add(new Point2D.Double(pts[i].y, pts[i].x));
-        for (int i = pts.size() - 1; i >= 0; i--)
-            pts.add(new Point2D.Double(-pts[i].x, pts[i].y));
-        for (int i = pts.size() - 1; i >= 0; i--)
-            pts.add(new Point2D.Double(pts[i].x, -pts[i].y));
+    Circle(long id, Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY,
+           double radius) {
+        super(id, color, fillColor, strokeWidth, originX, originY);
+        this.radius = requireSize("Radius", radius);
+    }
 
-        return pts;
+    /**
+     * Works out how many segments a circle needs so no part of its stroke strays more than a tolerance
+     * from the true circle.
+     * The outer edge of the stroke strays the most, so it is the edge measured.
+     * Counts are multiples of four, so the top, bottom, and sides of the circle are always vertices.
+     *
+     * @param radius      The radius of the circle
+     * @param strokeWidth The width of the stroke it is drawn with
+     * @param tolerance   How far in pixels the segments may stray from the circle,
+     *                    or zero to use {@link #DEFAULT_TOLERANCE}
+     * @return The number of segments, at least 8 and at most 65536
+     */
+    public static int segments(double radius, double strokeWidth, double tolerance) {
+        if (!(tolerance > 0))
+            tolerance = DEFAULT_TOLERANCE;
+        var outer = Math.abs(radius) + Math.max(0, strokeWidth) / 2;
+        if (!(tolerance < outer))
+            return MIN_SEGMENTS;
+        // a chord of angle 2 * acos(1 - tolerance / r) strays tolerance from an arc of radius r
+        var segments = Math.ceil(Math.PI / Math.acos(1 - tolerance / outer) / 4) * 4;
+        return (int) Math.max(MIN_SEGMENTS, Math.min(MAX_SEGMENTS, segments));
+    }
+
+    /**
+     * @return The cosine and sine of each vertex of a unit circle with this many segments, as x, y pairs
+     */
+    private static double[] unitCircle(int segments) {
+        if (segments > MAX_CACHED_SEGMENTS)
+            return computeUnitCircle(segments);
+        return unitCircles.computeIfAbsent(segments, Circle::computeUnitCircle);
+    }
+
+    private static double[] computeUnitCircle(int segments) {
+        var xy = new double[2 * segments];
+        // one quadrant is computed and mirrored into the rest, so opposite vertices match exactly
+        int quarter = segments / 4;
+        for (int i = 0; i <= quarter; i++) {
+            var theta = 2 * Math.PI * i / segments;
+            var x = i == quarter ? 0 : Math.cos(theta);
+            var y = i == 0 ? 0 : Math.sin(theta);
+            xy[2 * i] = x;
+            xy[2 * i + 1] = y;
+            if (i > 0) {
+                xy[2 * (2 * quarter - i)] = -x;
+                xy[2 * (2 * quarter - i) + 1] = y;
+                xy[2 * (segments - i)] = x;
+                xy[2 * (segments - i) + 1] = -y;
+            }
+            if (i < quarter) {
+                xy[2 * (2 * quarter + i)] = -x;
+                xy[2 * (2 * quarter + i) + 1] = -y;
+            }
+        }
+        return xy;
     }
 
     /**
@@ -71,37 +142,76 @@ public final class Circle extends Shape<Circle> {
      */
     @Contract("_ -> new")
     public Circle withRadius(double radius) {
-        var cp = copy();
-        cp.radius = radius;
-        return cp;
+        return new Circle(color, fillColor, strokeWidth, originX, originY, radius);
     }
 
     @Override
     protected void drawShape(Turtle turtle) {
-        var pts = circlePoints(radius);
+        // turtles draw at the world's own scale, so a tolerance in painting pixels is one in screen pixels
+        var xy = vertices(DEFAULT_TOLERANCE);
         var delay = turtle.delay;
         turtle.delay = 0;
         turtle.penUp();
-        turtle.goTo(pts[0]);
+        turtle.goTo(xy[0], xy[1]);
         turtle.penDown();
         turtle.delay = delay;
         turtle.pause();
-        turtle.delay = 0;
 
-        //noinspection ResultOfMethodCallIgnored
-        pts.stream()
-            .reduce((prev, pos) -> {
-                turtle.heading = Math.toDegrees(Math.atan2(pos.y - prev.y, pos.x - prev.x));
-                turtle.forward(pos.distance(prev));
-                return pos;
-            });
+        turtle.polyline(xy, xy.length / 2);
+    }
 
-        turtle.delay = delay;
-        turtle.pause();
+    @Override
+    public @NotNull Path2D outline() {
+        return outline(DEFAULT_TOLERANCE);
+    }
+
+    @Override
+    public @NotNull Rectangle2D bounds() {
+        return new Rectangle2D.Double(originX - radius, originY - radius, 2 * radius, 2 * radius);
+    }
+
+    /**
+     * Traces this circle with as few segments as keep its stroke within a tolerance of the true circle.
+     *
+     * @param tolerance How far in pixels the traced path may stray from the true circle,
+     *                  or zero to use {@link #DEFAULT_TOLERANCE}
+     * @return The traced path
+     * @see #segments(double, double, double)
+     */
+    @Override
+    public @NotNull Path2D outline(double tolerance) {
+        var xy = vertices(tolerance);
+        var path = new Path2D.Double(Path2D.WIND_NON_ZERO, xy.length / 2);
+        path.moveTo(xy[0], xy[1]);
+        for (int i = 2; i < xy.length - 2; i += 2)
+            path.lineTo(xy[i], xy[i + 1]);
+        path.closePath();
+        return path;
+    }
+
+    /**
+     * @return The points around this circle as x, y pairs, ending back at the first point
+     */
+    private double[] vertices(double tolerance) {
+        var unit = unitCircle(segments(radius, strokeWidth, tolerance));
+        var xy = new double[unit.length + 2];
+        for (int i = 0; i < unit.length; i += 2) {
+            xy[i] = originX + radius * unit[i];
+            xy[i + 1] = originY + radius * unit[i + 1];
+        }
+        xy[xy.length - 2] = xy[0];
+        xy[xy.length - 1] = xy[1];
+        return xy;
     }
 
     @Override
-    public @NotNull Circle copy() {
-        return new Circle(this);
+    protected @NotNull Circle with(Color color, @Nullable Color fillColor, double strokeWidth,
+                                   double originX, double originY) {
+        return new Circle(color, fillColor, strokeWidth, originX, originY, radius);
+    }
+
+    @Serial
+    private Object readResolve() throws ObjectStreamException {
+        return revalidate(() -> new Circle(id, color, fillColor, strokeWidth, originX, originY, radius));
     }
 }
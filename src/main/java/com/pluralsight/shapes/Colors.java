@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.shapes;
+
+import java.awt.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Shares {@link Color} instances between shapes.
+ * Paintings tend to reuse a handful of colors across many shapes,
+ * so interning them avoids keeping a copy per shape.
+ */
+@SuppressWarnings("UtilityClass")
+public final class Colors {
+    /// distinct colors beyond this many are not interned, so the pool can't grow without bound
+    private static final int MAX_INTERNED = 4096;
+    private static final Map<Integer, Color> pool = new ConcurrentHashMap<>();
+
+    static {
+        for (Color c : new Color[]{
+            Color.BLACK, Color.WHITE, Color.GRAY, Color.LIGHT_GRAY, Color.DARK_GRAY,
+            Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.ORANGE,
+            Color.PINK, Color.MAGENTA, Color.CYAN,
+        })
+            pool.put(c.getRGB(), c);
+    }
+
+    private Colors() {
+    }
+
+    /**
+     * Gets the shared instance of a color.
+     *
+     * @param color The color to look up
+     * @return An equal color, shared with every other caller if possible
+     */
+    public static Color intern(Color color) {
+        var shared = pool.get(color.getRGB());
+        if (shared != null)
+            return shared;
+        // subclasses of Color may carry more than their ARGB value
+        if (color.getClass() != Color.class || pool.size() >= MAX_INTERNED)
+            return color;
+        shared = pool.putIfAbsent(color.getRGB(), color);
+        return shared == null ? color : shared;
+    }
+
+    /**
+     * Gets the shared instance of a color.
+     *
+     * @param argb The color in the default ARGB color model
+     * @return A color with that value, shared with every other caller if possible
+     */
+    public static Color intern(int argb) {
+        var shared = pool.get(argb);
+        return shared != null ? shared : intern(new Color(argb, true));
+    }
+}
@@ -8,6 +8,10 @@ import com.pluralsight.drawing.*;
 import manifold.ext.props.rt.api.*;
 import org.jetbrains.annotations.*;
 
+import java.awt.*;
+import java.awt.geom.*;
+import java.io.*;
+
 /**
  * Represents a rectangle with a specific width and height.
  * This shape's origin is in its upper-left corner.
@@ -16,26 +20,60 @@ public final class Rect extends Shape<Rect> {
     /**
      * The width of this rectangle.
      */
-    @var
-    @set(PropOption.Private)
-    public double width = 1;
+    @val
+    public final double width;
     /**
      * The height of this rectangle.
      */
-    @var
-    @set(PropOption.Private)
-    public double height = 1;
+    @val
+    public final double height;
 
     /**
      * Creates a new Rect with default values.
      */
     public Rect() {
+        width = 1;
+        height = 1;
     }
 
-    private Rect(Rect copied) {
-        super(copied);
-        width = copied.width;
-        height = copied.height;
+    /**
+     * Creates a new Rect.
+     *
+     * @param color       The color used to draw the rectangle
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the rectangle's upper-left corner
+     * @param originY     The y coordinate of the rectangle's upper-left corner
+     * @param width       The width
+     * @param height      The height
+     */
+    public Rect(Color color, double strokeWidth, double originX, double originY, double width, double height) {
+        this(color, null, strokeWidth, originX, originY, width, height);
+    }
+
+    /**
+     * Creates a new filled Rect.
+     *
+     * @param color       The color used to draw the rectangle
+     * @param fillColor   The color used to fill the rectangle, or null to only outline it
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the rectangle's upper-left corner
+     * @param originY     The y coordinate of the rectangle's upper-left corner
+     * @param width       The width
+     * @param height      The height
+     * @throws IllegalArgumentException if a size or the stroke width is negative or a value isn't finite
+     */
+    public Rect(Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY,
+                double width, double height) {
+        super(color, fillColor, strokeWidth, originX, originY);
+        this.width = requireSize("Width", width);
+        this.height = requireSize("Height", height);
+    }
+
+    Rect(long id, Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY,
+         double width, double height) {
+        super(id, color, fillColor, strokeWidth, originX, originY);
+        this.width = requireSize("Width", width);
+        this.height = requireSize("Height", height);
     }
 
     /**
@@ -46,9 +84,7 @@ public final class Rect extends Shape<Rect> {
      */
     @Contract("_ -> new")
     public Rect withWidth(double width) {
-        var cp = copy();
-        cp.width = width;
-        return cp;
+        return new Rect(color, fillColor, strokeWidth, originX, originY, width, height);
     }
 
     /**
@@ -59,14 +95,29 @@ public final class Rect extends Shape<Rect> {
      */
     @Contract("_ -> new")
     public Rect withHeight(double height) {
-        var cp = copy();
-        cp.height = height;
-        return cp;
+        return new Rect(color, fillColor, strokeWidth, originX, originY, width, height);
     }
 
     @Override
-    public @NotNull Rect copy() {
-        return new Rect(this);
+    protected @NotNull Rect with(Color color, @Nullable Color fillColor, double strokeWidth,
+                                 double originX, double originY) {
+        return new Rect(color, fillColor, strokeWidth, originX, originY, width, height);
+    }
+
+    @Override
+    public @NotNull Path2D outline() {
+        var path = new Path2D.Double();
+        path.moveTo(originX, originY);
+        path.lineTo(originX + width, originY);
+        path.lineTo(originX + width, originY - height);
+        path.lineTo(originX, originY - height);
+        path.closePath();
+        return path;
+    }
+
+    @Override
+    public @NotNull Rectangle2D bounds() {
+        return new Rectangle2D.Double(originX, originY - height, width, height);
     }
 
     @Override
@@ -80,4 +131,9 @@ public final class Rect extends Shape<Rect> {
         turtle.turnRight(90);
         turtle.forward(height);
     }
+
+    @Serial
+    private Object readResolve() throws ObjectStreamException {
+        return revalidate(() -> new Rect(id, color, fillColor, strokeWidth, originX, originY, width, height));
+    }
 }
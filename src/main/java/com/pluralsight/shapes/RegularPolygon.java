@@ -8,43 +8,91 @@ import com.pluralsight.drawing.*;
 import manifold.ext.props.rt.api.*;
 import org.jetbrains.annotations.*;
 
+import java.awt.Color;
 import java.awt.geom.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represents a regular polygon.
  * This shape's origin is in its center.
  */
 public final class RegularPolygon extends Shape<RegularPolygon> {
+    /**
+     * The most sides a polygon may have; past this it can't be told from a circle.
+     */
+    public static final int MAX_SIDES = 1024;
+    private static final Map<Integer, double[]> unitVertices = new ConcurrentHashMap<>();
     /**
      * The number of sides in this polygon.
      */
-    @var
-    @set(PropOption.Private)
-    public final int numSides = 5;
+    @val
+    public final int numSides;
     /**
      * The starting angle of one of the polygon's points.
      */
-    @var
-    @set(PropOption.Private)
-    public final double angle = 0;
+    @val
+    public final double angle;
     /**
      * The distance from the origin to one of the polygon's points.
      */
-    @var
-    @set(PropOption.Private)
-    public final double radius = 10;
+    @val
+    public final double radius;
 
     /**
      * Creates a new Regular Polygon with default values.
      */
     public RegularPolygon() {
+        numSides = 5;
+        angle = 0;
+        radius = 10;
+    }
+
+    /**
+     * Creates a new Regular Polygon.
+     *
+     * @param color       The color used to draw the polygon
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the polygon's center
+     * @param originY     The y coordinate of the polygon's center
+     * @param numSides    The number of sides
+     * @param angle       The starting angle of one of the polygon's points, in degrees
+     * @param radius      The distance from the center to each point
+     */
+    public RegularPolygon(Color color, double strokeWidth, double originX, double originY,
+                          int numSides, double angle, double radius) {
+        this(color, null, strokeWidth, originX, originY, numSides, angle, radius);
+    }
+
+    /**
+     * Creates a new filled Regular Polygon.
+     *
+     * @param color       The color used to draw the polygon
+     * @param fillColor   The color used to fill the polygon, or null to only outline it
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the polygon's center
+     * @param originY     The y coordinate of the polygon's center
+     * @param numSides    The number of sides
+     * @param angle       The starting angle of one of the polygon's points, in degrees
+     * @param radius      The distance from the center to each point
+     * @throws IllegalArgumentException if the number of sides is outside 3 to {@link #MAX_SIDES},
+     *                                  the radius or stroke width is negative, or a value isn't finite
+     */
+    public RegularPolygon(Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY,
+                          int numSides, double angle, double radius) {
+        super(color, fillColor, strokeWidth, originX, originY);
+        this.numSides = requireSides(numSides);
+        this.angle = requireAngle(angle);
+        this.radius = requireSize("Radius", radius);
     }
 
-    private RegularPolygon(RegularPolygon copied) {
-        super(copied);
-        numSides = copied.numSides;
-        angle = copied.angle;
-        radius = copied.radius;
+    RegularPolygon(long id, Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY,
+                   int numSides, double angle, double radius) {
+        super(id, color, fillColor, strokeWidth, originX, originY);
+        this.numSides = requireSides(numSides);
+        this.angle = requireAngle(angle);
+        this.radius = requireSize("Radius", radius);
     }
 
     /**
@@ -55,9 +103,7 @@ public final class RegularPolygon extends Shape<RegularPolygon> {
      */
     @Contract("_ -> new")
     public RegularPolygon withRadius(double radius) {
-        var cp = copy();
-        cp.radius = radius;
-        return cp;
+        return new RegularPolygon(color, fillColor, strokeWidth, originX, originY, numSides, angle, radius);
     }
 
     /**
@@ -68,9 +114,7 @@ public final class RegularPolygon extends Shape<RegularPolygon> {
      */
     @Contract("_ -> new")
     public RegularPolygon withAngle(double angle) {
-        var cp = copy();
-        cp.angle = angle;
-        return cp;
+        return new RegularPolygon(color, fillColor, strokeWidth, originX, originY, numSides, angle, radius);
     }
 
     /**
@@ -81,45 +125,100 @@ public final class RegularPolygon extends Shape<RegularPolygon> {
      */
     @Contract("_ -> new")
     public RegularPolygon withNumSides(int numSides) {
-        var cp = copy();
-        cp.numSides = numSides;
-        return cp;
+        return new RegularPolygon(color, fillColor, strokeWidth, originX, originY, numSides, angle, radius);
     }
 
-    private double getTurnAngle() {
-        return 360.0f / numSides;
+    private static int requireSides(int numSides) {
+        if (numSides < 3 || numSides > MAX_SIDES)
+            throw new IllegalArgumentException("A polygon has 3 to $MAX_SIDES sides, not $numSides");
+        return numSides;
     }
 
-    private double getSideLength() {
-        // (cos(0)*radius, sin(0)*radius) -> (cos(turnAngle)*radius, sin(turnAngle)*radius)
-        return new Point2D.Double(radius, 0)
-            .distance(
-                new Point2D.Double(
-                    Math.cos(Math.toRadians(turnAngle)) * radius,
-                    Math.sin(Math.toRadians(turnAngle)) * radius
-                )
-            );
+    private static double requireAngle(double angle) {
+        if (!Double.isFinite(angle))
+            throw new IllegalArgumentException("Angle $angle is not finite");
+        return angle;
+    }
+
+    /**
+     * Gets the corners of a polygon with a radius of 1 and an angle of 0.
+     * The tables are shared, so they must not be modified.
+     *
+     * @param numSides The number of sides
+     * @return The corners as x, y pairs, ending back at the first corner
+     */
+    private static double[] unitVertices(int numSides) {
+        return unitVertices.computeIfAbsent(numSides, RegularPolygon::computeUnitVertices);
+    }
+
+    private static double[] computeUnitVertices(int numSides) {
+        var table = new double[2 * numSides + 2];
+        // each corner is computed from its own angle so no error builds up around the polygon
+        for (int i = 0; i < numSides; i++) {
+            var theta = 2 * Math.PI * i / numSides;
+            table[2 * i] = Math.cos(theta);
+            table[2 * i + 1] = Math.sin(theta);
+        }
+        table[2 * numSides] = table[0];
+        table[2 * numSides + 1] = table[1];
+        return table;
+    }
+
+    /**
+     * Calculates the corners of this polygon.
+     *
+     * @return The corners as x, y pairs relative to the center of the canvas, ending back at the first corner
+     */
+    @Contract(" -> new")
+    public double[] vertices() {
+        var unit = unitVertices(numSides);
+        var cos = Math.cos(Math.toRadians(angle)) * radius;
+        var sin = Math.sin(Math.toRadians(angle)) * radius;
+        var xy = new double[unit.length];
+        for (int i = 0; i < unit.length; i += 2) {
+            xy[i] = originX + unit[i] * cos - unit[i + 1] * sin;
+            xy[i + 1] = originY + unit[i] * sin + unit[i + 1] * cos;
+        }
+        return xy;
     }
 
     @Override
     protected void drawShape(Turtle turtle) {
+        var xy = vertices();
         var delay = turtle.delay;
         turtle.delay = 0;
-        turtle.turnLeft(angle);
         turtle.penUp();
-        turtle.forward(radius);
-        turtle.delay = delay;
-        turtle.turnLeft(90 + turnAngle / 2);
+        turtle.goTo(xy[0], xy[1]);
         turtle.penDown();
-        for (int i = 0; i < numSides; i++) {
-            turtle.forward(sideLength);
-            if (i < numSides - 1)
-                turtle.turnLeft(turnAngle);
-        }
+        turtle.delay = delay;
+        turtle.polyline(xy, numSides + 1);
     }
 
     @Override
-    public @NotNull RegularPolygon copy() {
-        return new RegularPolygon(this);
+    public @NotNull Path2D outline() {
+        var xy = vertices();
+        var path = new Path2D.Double(Path2D.WIND_NON_ZERO, numSides);
+        path.moveTo(xy[0], xy[1]);
+        for (int i = 1; i < numSides; i++)
+            path.lineTo(xy[2 * i], xy[2 * i + 1]);
+        path.closePath();
+        return path;
+    }
+
+    @Override
+    public @NotNull Rectangle2D bounds() {
+        // every corner is on the circle through the points
+        return new Rectangle2D.Double(originX - radius, originY - radius, 2 * radius, 2 * radius);
+    }
+
+    @Override
+    protected @NotNull RegularPolygon with(Color color, @Nullable Color fillColor, double strokeWidth,
+                                           double originX, double originY) {
+        return new RegularPolygon(color, fillColor, strokeWidth, originX, originY, numSides, angle, radius);
+    }
+
+    @Serial
+    private Object readResolve() throws ObjectStreamException {
+        return revalidate(() -> new RegularPolygon(id, color, fillColor, strokeWidth, originX, originY, numSides, angle, radius));
     }
 }
@@ -11,56 +11,120 @@ import org.jetbrains.annotations.*;
 import java.awt.*;
 import java.awt.geom.*;
 import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 /**
  * Represents a shape which can be drawn with a {@link Turtle}.
+ * Shapes are immutable, so they can be shared freely without copying.
  *
  * @param <T> The implementing class
  */
 public abstract class Shape<T extends Shape<T>> implements TurtleDrawable, Serializable {
-    private static int UUIDCounter;
+    /// seeded from the clock so ids made in different runs are unlikely to collide
+    private static final AtomicLong nextId = new AtomicLong(System.currentTimeMillis() << 20);
     /**
      * The color used to draw this shape.
      */
-    @var
-    @set(PropOption.Private)
-    public final Color color = Color.BLACK;
+    @val
+    public final Color color;
+    /**
+     * The color used to fill this shape's interior, or null if it is only outlined.
+     */
+    @val
+    public final @Nullable Color fillColor;
     /**
      * The width of stroke to use when drawing this shape.
      */
-    @var
-    @set(PropOption.Private)
-    public final double strokeWidth = 1;
+    @val
+    public final double strokeWidth;
     /**
-     * The origin point for this shape.
+     * The x coordinate of the origin point for this shape.
      */
-    @var
-    @set(PropOption.Private)
-    public final Point2D origin = new Point2D.Double(0, 0);
+    @val
+    public final double originX;
+    /**
+     * The y coordinate of the origin point for this shape.
+     */
+    @val
+    public final double originY;
     /**
      * A unique identifier for this shape.
      * <p>
-     * This is guaranteed to be unique for any given
-     * execution but may not be unique across multiple executions.
+     * Ids are saved with the shape, and shapes created after loading one
+     * are given larger ids, so ids stay unique across save and load cycles.
      */
     @val
-    public transient int UUID;
+    public final long id;
 
+    /**
+     * Creates a black shape with a stroke width of 1 at (0, 0).
+     */
     protected Shape() {
-        UUID = UUIDCounter;
-        UUIDCounter++;
+        this(Color.BLACK, null, 1, 0, 0);
+    }
+
+    /**
+     * @param color       The color used to draw the shape
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the shape's origin
+     * @param originY     The y coordinate of the shape's origin
+     */
+    protected Shape(Color color, double strokeWidth, double originX, double originY) {
+        this(color, null, strokeWidth, originX, originY);
+    }
+
+    /**
+     * @param color       The color used to draw the shape
+     * @param fillColor   The color used to fill the shape, or null to only outline it
+     * @param strokeWidth The width of stroke to use
+     * @param originX     The x coordinate of the shape's origin
+     * @param originY     The y coordinate of the shape's origin
+     */
+    protected Shape(Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY) {
+        this(nextId.getAndIncrement(), color, fillColor, strokeWidth, originX, originY);
     }
 
     /**
-     * Copy constructor.
+     * Recreates a saved shape.
      *
-     * @param copied The shape to copy from
+     * @param id The id the shape was saved with
+     * @throws IllegalArgumentException if the stroke width is negative or a coordinate isn't finite
      */
-    protected Shape(Shape copied) {
-        this();
-        color = copied.color;
-        strokeWidth = copied.strokeWidth;
-        origin = copied.origin;
+    Shape(long id, Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY) {
+        requireSize("Stroke width", strokeWidth);
+        if (!Double.isFinite(originX) || !Double.isFinite(originY))
+            throw new IllegalArgumentException("Origin ($originX, $originY) is not finite");
+        this.id = id;
+        this.color = Colors.intern(color);
+        this.fillColor = fillColor == null ? null : Colors.intern(fillColor);
+        this.strokeWidth = strokeWidth;
+        this.originX = originX;
+        this.originY = originY;
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Checks a size given to a shape, so a bad value is refused where it comes from
+     * rather than failing later when the shape is drawn.
+     *
+     * @param name  What the size is, for the error message
+     * @param value The size
+     * @return The size
+     * @throws IllegalArgumentException if the size is negative or not finite
+     */
+    protected static double requireSize(String name, double value) {
+        if (!(value >= 0) || value == Double.POSITIVE_INFINITY)
+            throw new IllegalArgumentException("$name $value is not a finite size");
+        return value;
+    }
+
+    /**
+     * @return A new point at this shape's origin
+     */
+    @Contract(" -> new")
+    public Point2D getOrigin() {
+        return new Point2D.Double(originX, originY);
     }
 
     @Override
@@ -70,8 +134,11 @@ public abstract class Shape<T extends Shape<T>> implements TurtleDrawable, Seria
         turtle.penUp();
         turtle.setColor(color);
         turtle.setPenWidth(strokeWidth);
-        turtle.goTo(origin);
+        turtle.goTo(originX, originY);
         turtle.setHeading(0);
+        if (fillColor != null)
+            // the interior appears at once; only the outline is animated
+            turtle.fill(outline(), fillColor);
         turtle.penDown();
         turtle.delay = delay;
 
@@ -86,9 +153,18 @@ public abstract class Shape<T extends Shape<T>> implements TurtleDrawable, Seria
      */
     @Contract("_ -> new")
     public T withColor(Color color) {
-        var cp = copy();
-        cp.color = color;
-        return cp;
+        return with(color, fillColor, strokeWidth, originX, originY);
+    }
+
+    /**
+     * Makes a new shape with a different fill color.
+     *
+     * @param fillColor The fill color to use, or null to only outline the shape
+     * @return A copied shape with a new fill color
+     */
+    @Contract("_ -> new")
+    public T withFillColor(@Nullable Color fillColor) {
+        return with(color, fillColor, strokeWidth, originX, originY);
     }
 
     /**
@@ -99,9 +175,7 @@ public abstract class Shape<T extends Shape<T>> implements TurtleDrawable, Seria
      */
     @Contract("_ -> new")
     public T withStrokeWidth(double strokeWidth) {
-        var cp = copy();
-        cp.strokeWidth = strokeWidth;
-        return cp;
+        return with(color, fillColor, strokeWidth, originX, originY);
     }
 
     /**
@@ -112,19 +186,87 @@ public abstract class Shape<T extends Shape<T>> implements TurtleDrawable, Seria
      */
     @Contract("_ -> new")
     public T withOrigin(Point2D origin) {
-        var cp = copy();
-        cp.origin = origin;
-        return cp;
+        return with(color, fillColor, strokeWidth, origin.getX(), origin.getY());
+    }
+
+    /**
+     * Makes a new shape with a different origin.
+     *
+     * @param originX The x coordinate of the origin to use
+     * @param originY The y coordinate of the origin to use
+     * @return A copied shape with a new origin
+     */
+    @Contract("_, _ -> new")
+    public T withOrigin(double originX, double originY) {
+        return with(color, fillColor, strokeWidth, originX, originY);
+    }
+
+    /**
+     * Makes a new shape of the same type with different common properties.
+     *
+     * @param color       The color to use
+     * @param fillColor   The fill color to use, or null
+     * @param strokeWidth The stroke width to use
+     * @param originX     The x coordinate of the origin to use
+     * @param originY     The y coordinate of the origin to use
+     * @return A copied shape with the given properties
+     */
+    @NotNull
+    @Contract("_, _, _, _, _ -> new")
+    protected abstract T with(Color color, @Nullable Color fillColor, double strokeWidth, double originX, double originY);
+
+    /**
+     * Traces the path this shape draws, relative to the center of the canvas with +y up.
+     *
+     * @return The traced path
+     */
+    @NotNull
+    @Contract(" -> new")
+    public abstract Path2D outline();
+
+    /**
+     * Traces the path this shape draws, allowing curves to be approximated more coarsely.
+     * Shapes made only of straight lines trace the same path as {@link #outline()}.
+     *
+     * @param tolerance How far in pixels the traced path may stray from the true shape
+     * @return The traced path
+     */
+    @NotNull
+    @Contract("_ -> new")
+    public Path2D outline(double tolerance) {
+        return outline();
     }
 
     /**
-     * Creates a copy of this object.
+     * Finds a box around the path this shape draws without tracing it, so it stays cheap for curved shapes.
+     * The box may be larger than the path, but never smaller, and doesn't include the stroke.
      *
-     * @return An identical object
+     * @return The box, relative to the center of the canvas with +y up
      */
     @NotNull
     @Contract(" -> new")
-    public abstract T copy();
+    public abstract Rectangle2D bounds();
+
+    /**
+     * Recreates a deserialized shape through its constructor, since deserializing skips the constructor's checks.
+     *
+     * @param constructor Makes a copy of the shape, with the same id
+     * @return The copy
+     * @throws InvalidObjectException if the shape has values no constructor accepts
+     */
+    static Shape<?> revalidate(Supplier<? extends Shape<?>> constructor) throws InvalidObjectException {
+        try {
+            return constructor.get();
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
 
     /**
      * Draws this object using the provided turtle.
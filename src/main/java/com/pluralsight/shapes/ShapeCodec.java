@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.shapes;
+
+import java.awt.Color;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Encodes shapes compactly for storage.
+ * <p>
+ * Integers are written as variable length quantities, so small values take a single byte.
+ * Coordinates and sizes which fall on a 1/256 pixel grid, as almost all do, are stored as integer steps,
+ * and origins and stroke widths are stored as the difference from the previous shape's.
+ * Values off the grid are stored in full, so decoding always gives back exactly what was encoded.
+ * A list of shapes shares one palette, so each shape names its colors with small indexes.
+ * Only filled shapes store a fill color, flagged in the top bit of their type,
+ * so shapes written before fills existed still decode.
+ */
+@SuppressWarnings("UtilityClass")
+public final class ShapeCodec {
+    private static final int CIRCLE = 0;
+    private static final int RECT = 1;
+    private static final int REGULAR_POLYGON = 2;
+    private static final int FILLED = 0x80;
+    /// grid steps per pixel
+    private static final double STEPS = 256;
+    /// values this many steps or more from zero are stored in full
+    private static final long MAX_STEPS = 1L << 48;
+    private static final long OFF_GRID = Long.MIN_VALUE;
+    /// lists are only allocated this large up front, so a corrupt count can't claim more memory than the input holds
+    private static final int MAX_PREALLOCATED = 4096;
+
+    private ShapeCodec() {
+    }
+
+    /**
+     * Writes a list of shapes.
+     *
+     * @param out    The output to write to
+     * @param shapes The shapes to write
+     * @throws IOException if the output fails or a shape is of an unknown type
+     */
+    public static void write(DataOutput out, List<? extends Shape<?>> shapes) throws IOException {
+        var palette = new LinkedHashMap<Integer, Integer>();
+        for (Shape<?> shape : shapes) {
+            palette.putIfAbsent(shape.color.getRGB(), palette.size());
+            if (shape.fillColor != null)
+                palette.putIfAbsent(shape.fillColor.getRGB(), palette.size());
+        }
+        writeVarLong(out, palette.size());
+        for (int argb : palette.keySet())
+            out.writeInt(argb);
+
+        writeVarLong(out, shapes.size());
+        Shape<?> previous = null;
+        for (Shape<?> shape : shapes) {
+            write(out, shape, previous, palette);
+            previous = shape;
+        }
+    }
+
+    /**
+     * Reads a list of shapes written by {@link #write(DataOutput, List)}.
+     *
+     * @param in The input to read from
+     * @return The shapes, with the ids they were written with
+     * @throws IOException if the input fails or is not a list of shapes
+     */
+    public static List<Shape<?>> read(DataInput in) throws IOException {
+        int colors = count(in);
+        var paletteList = new ArrayList<Color>(Math.min(colors, MAX_PREALLOCATED));
+        for (int i = 0; i < colors; i++)
+            paletteList.add(Colors.intern(in.readInt()));
+        var palette = paletteList.toArray(new Color[0]);
+
+        int count = count(in);
+        var shapes = new ArrayList<Shape<?>>(Math.min(count, MAX_PREALLOCATED));
+        Shape<?> previous = null;
+        for (int i = 0; i < count; i++) {
+            previous = read(in, previous, palette);
+            shapes.add(previous);
+        }
+        return shapes;
+    }
+
+    /**
+     * Writes a single shape.
+     *
+     * @param out   The output to write to
+     * @param shape The shape to write
+     * @throws IOException if the output fails or the shape is of an unknown type
+     */
+    public static void writeShape(DataOutput out, Shape<?> shape) throws IOException {
+        write(out, shape, null, null);
+    }
+
+    /**
+     * Reads a single shape written by {@link #writeShape(DataOutput, Shape)}.
+     *
+     * @param in The input to read from
+     * @return The shape, with the id it was written with
+     * @throws IOException if the input fails or is not a shape
+     */
+    public static Shape<?> readShape(DataInput in) throws IOException {
+        return read(in, null, null);
+    }
+
+    /**
+     * @param previous The shape written before this one, or null if this one stands alone
+     * @param palette  The index of each color, or null to write colors in full
+     */
+    private static void write(DataOutput out, Shape<?> shape, Shape<?> previous, Map<Integer, Integer> palette)
+        throws IOException {
+        int type;
+        if (shape instanceof Circle)
+            type = CIRCLE;
+        else if (shape instanceof Rect)
+            type = RECT;
+        else if (shape instanceof RegularPolygon)
+            type = REGULAR_POLYGON;
+        else
+            throw new NotSerializableException(shape.getClass().getName());
+
+        out.writeByte(shape.fillColor == null ? type : type | FILLED);
+        // Shapes added one after another have consecutive ids
+        writeVarLong(out, zigzag(shape.id - (previous == null ? 0 : previous.id)));
+        writeColor(out, shape.color, palette);
+        if (shape.fillColor != null)
+            writeColor(out, shape.fillColor, palette);
+        writeValue(out, shape.strokeWidth, previous == null ? 0 : previous.strokeWidth);
+        writeValue(out, shape.originX, previous == null ? 0 : previous.originX);
+        writeValue(out, shape.originY, previous == null ? 0 : previous.originY);
+
+        if (shape instanceof Circle circle)
+            writeValue(out, circle.radius, 0);
+        else if (shape instanceof Rect rect) {
+            writeValue(out, rect.width, 0);
+            writeValue(out, rect.height, 0);
+        } else if (shape instanceof RegularPolygon polygon) {
+            writeVarLong(out, zigzag(polygon.numSides));
+            writeValue(out, polygon.angle, 0);
+            writeValue(out, polygon.radius, 0);
+        }
+    }
+
+    private static Shape<?> read(DataInput in, Shape<?> previous, Color[] palette) throws IOException {
+        int type = in.readUnsignedByte();
+        long id = unzigzag(readVarLong(in)) + (previous == null ? 0 : previous.id);
+        Color color = readColor(in, palette);
+        Color fillColor = (type & FILLED) != 0 ? readColor(in, palette) : null;
+        type &= ~FILLED;
+        double strokeWidth = readValue(in, previous == null ? 0 : previous.strokeWidth);
+        double originX = readValue(in, previous == null ? 0 : previous.originX);
+        double originY = readValue(in, previous == null ? 0 : previous.originY);
+
+        try {
+            return switch (type) {
+                case CIRCLE -> new Circle(id, color, fillColor, strokeWidth, originX, originY, readValue(in, 0));
+                case RECT -> new Rect(id, color, fillColor, strokeWidth, originX, originY, readValue(in, 0), readValue(in, 0));
+                case REGULAR_POLYGON -> new RegularPolygon(id, color, fillColor, strokeWidth, originX, originY,
+                    readSides(in), readValue(in, 0), readValue(in, 0));
+                default -> throw new StreamCorruptedException("Unknown shape type $type");
+            };
+        } catch (IllegalArgumentException e) {
+            // the shape's own checks refuse values no editor could have saved
+            throw new StreamCorruptedException(e.getMessage());
+        }
+    }
+
+    private static int readSides(DataInput in) throws IOException {
+        long sides = unzigzag(readVarLong(in));
+        if (sides != (int) sides)
+            throw new StreamCorruptedException("Impossible number of sides $sides");
+        return (int) sides;
+    }
+
+    private static void writeColor(DataOutput out, Color color, Map<Integer, Integer> palette) throws IOException {
+        if (palette == null)
+            out.writeInt(color.getRGB());
+        else
+            writeVarLong(out, palette.get(color.getRGB()));
+    }
+
+    private static Color readColor(DataInput in, Color[] palette) throws IOException {
+        if (palette == null)
+            return Colors.intern(in.readInt());
+        long index = readVarLong(in);
+        if (index >= palette.length)
+            throw new StreamCorruptedException("Color $index is not in the palette");
+        return palette[(int) index];
+    }
+
+    /**
+     * Writes a value as the number of grid steps from a previous value if both are on the grid,
+     * or in full otherwise.
+     * The lowest bit of the first quantity says which.
+     */
+    private static void writeValue(DataOutput out, double value, double previous) throws IOException {
+        long steps = steps(value);
+        long previousSteps = steps(previous);
+        if (steps != OFF_GRID && previousSteps != OFF_GRID)
+            writeVarLong(out, zigzag(steps - previousSteps) << 1);
+        else {
+            writeVarLong(out, 1);
+            out.writeDouble(value);
+        }
+    }
+
+    private static double readValue(DataInput in, double previous) throws IOException {
+        long tag = readVarLong(in);
+        if ((tag & 1) != 0)
+            return in.readDouble();
+        return (steps(previous) + unzigzag(tag >>> 1)) / STEPS;
+    }
+
+    private static long steps(double value) {
+        double steps = value * STEPS;
+        // negative zero would come back as zero from the grid
+        if (steps != Math.rint(steps) || Math.abs(steps) >= MAX_STEPS
+            || Double.doubleToRawLongBits(value) == Long.MIN_VALUE)
+            return OFF_GRID;
+        return (long) steps;
+    }
+
+    private static int count(DataInput in) throws IOException {
+        long count = readVarLong(in);
+        if (count > Integer.MAX_VALUE - 8)
+            throw new StreamCorruptedException("Impossible count $count");
+        return (int) count;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Variable length quantity is too long");
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.bench;
+
+import com.pluralsight.*;
+import com.pluralsight.drawing.*;
+
+import javax.imageio.*;
+import java.awt.Color;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Renders a fixed corpus of generated paintings headlessly with every {@link RenderProfile},
+ * compares each against a stored golden image, and reports how long each took to render.
+ * Run it after changing how paintings are drawn to check the pixels are unchanged and the change is actually faster.
+ * <p>
+ * Arguments: {@code [check|record] [golden directory] [rounds]}.
+ * {@code record} writes the current renders as the golden images; {@code check}, the default, compares against them.
+ * The golden images are kept in {@code src/test/resources/golden}, and {@code mvn verify} checks them
+ * with no timing rounds; re-record them in any change which means to change how paintings look.
+ * The process exits with status 1 if any render differs.
+ */
+@SuppressWarnings("UtilityClass")
+public final class GoldenImageHarness {
+    private static final int ROUNDS = 5;
+    /// channel differences up to this much are antialiasing noise, not a change
+    private static final int CHANNEL_TOLERANCE = 8;
+    /// the fraction of pixels which may differ by more than the channel tolerance
+    private static final double PIXEL_TOLERANCE = 0.001;
+    private static final Map<String, Supplier<Painting>> CORPUS = new LinkedHashMap<>();
+    /// paintings only timed, since their golden images would be too big to keep in the repository
+    private static final Set<String> TIMED_ONLY = Set.of("large");
+
+    static {
+        ToDoubleFunction<Random> thin = random -> 1 + random.nextInt(3);
+        CORPUS.put("circles", () -> generate(new RandomShapes(600, 600, 0, thin, false, false), 1, 2_000));
+        CORPUS.put("rects", () -> generate(new RandomShapes(600, 600, 1, thin, false, false), 2, 2_000));
+        CORPUS.put("polygons", () -> generate(new RandomShapes(600, 600, 2, thin, false, false), 3, 2_000));
+        CORPUS.put("mixed", () -> generate(new RandomShapes(800, 600, -1, thin, false, false), 4, 5_000));
+        CORPUS.put("thick-strokes", () -> generate(
+            new RandomShapes(400, 400, -1, random -> 4 + random.nextInt(12), false, false), 5, 500));
+        CORPUS.put("filled", () -> generate(new RandomShapes(600, 600, -1, thin, false, true), 7, 2_000));
+        CORPUS.put("large", () -> generate(new RandomShapes(2000, 2000, -1, thin, false, false), 6, 20_000));
+    }
+
+    private GoldenImageHarness() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean record = args.length > 0 && args[0].equals("record");
+        var directory = new File(args.length > 1 ? args[1] : "src/test/resources/golden");
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : ROUNDS;
+        if (record && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create ${directory.getPath()}");
+
+        boolean passed = true;
+        System.out.println("painting      \tprofile   \trender (ms)\tmax diff\tdiff pixels\tresult");
+        for (var entry : CORPUS.entrySet()) {
+            if (rounds == 0 && TIMED_ONLY.contains(entry.getKey()))
+                // nothing to time or compare
+                continue;
+            Painting painting = entry.getValue().get();
+            for (RenderProfile profile : RenderProfile.values()) {
+                // the first round warms up the JIT and is only reported if it is the only one
+                long best = Long.MAX_VALUE;
+                BufferedImage image = null;
+                for (int round = 0; round <= rounds; round++) {
+                    long start = System.nanoTime();
+                    image = painting.render(profile, Color.WHITE, 1);
+                    long time = System.nanoTime() - start;
+                    if (round > 0 || rounds == 0)
+                        best = Math.min(best, time);
+                }
+
+                var golden = new File(directory, "${entry.getKey()}-${profile.name().toLowerCase()}.png");
+                String result;
+                Diff diff = null;
+                if (TIMED_ONLY.contains(entry.getKey()))
+                    result = "timed";
+                else if (record) {
+                    ImageIO.write(image, "png", golden);
+                    result = "recorded";
+                } else if (!golden.isFile()) {
+                    result = "MISSING";
+                    passed = false;
+                } else {
+                    diff = compare(ImageIO.read(golden), image);
+                    boolean ok = diff != null && diff.pixels <= PIXEL_TOLERANCE * image.getWidth() * image.getHeight();
+                    result = ok ? "pass" : "FAIL";
+                    passed &= ok;
+                }
+                System.out.println("%-14s\t%-10s\t%11.1f\t%8s\t%11s\t%s".formatted(
+                    entry.getKey(), profile, best / 1e6,
+                    diff == null ? "-" : Integer.toString(diff.maxChannel),
+                    diff == null ? "-" : Long.toString(diff.pixels),
+                    result));
+            }
+        }
+        if (!passed)
+            System.exit(1);
+    }
+
+    /**
+     * Generates a painting from a seed, so the same name always gives the same painting.
+     */
+    private static Painting generate(RandomShapes settings, long seed, int count) {
+        // rendering headlessly needs no canvas or turtle
+        return new Painting(settings.width(), settings.height(), settings.generate(seed, count), null, null);
+    }
+
+    /**
+     * Compares two images pixel by pixel, straight from their int buffers where possible.
+     *
+     * @return How much the images differ, or null if they are different sizes
+     */
+    private static Diff compare(BufferedImage expected, BufferedImage actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight())
+            return null;
+        int[] a = argb(expected);
+        int[] b = argb(actual);
+        int maxChannel = 0;
+        long pixels = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i])
+                continue;
+            int worst = 0;
+            for (int shift = 0; shift < 32; shift += 8)
+                worst = Math.max(worst, Math.abs((a[i] >>> shift & 0xFF) - (b[i] >>> shift & 0xFF)));
+            maxChannel = Math.max(maxChannel, worst);
+            if (worst > CHANNEL_TOLERANCE)
+                pixels++;
+        }
+        return new Diff(maxChannel, pixels);
+    }
+
+    /**
+     * @return The image's pixels in the default ARGB color model, without copying if they already are
+     */
+    private static int[] argb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB)
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        var copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        var g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return ((DataBufferInt) copy.getRaster().getDataBuffer()).getData();
+    }
+
+    private record Diff(int maxChannel, long pixels) {
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.bench;
+
+import com.pluralsight.shapes.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Compares how big a painting's shapes are and how fast they decode
+ * with Java serialization and with {@link ShapeCodec}, with and without deflating.
+ * Pass a shape count to change the workload.
+ */
+@SuppressWarnings("UtilityClass")
+public final class PaintingCodecBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        // coordinates typed in by hand, and stroke widths mostly left at 1
+        List<Shape<?>> shapes = new RandomShapes(600, 600, -1,
+            random -> random.nextInt(10) < 8 ? 1 : 1 + random.nextInt(8) * 0.5, true, false).generate(42, count);
+
+        System.out.println("encoding        \tbytes     \tbytes/shape\tdecode (ms)");
+        report("serialization", serialize(shapes), PaintingCodecBenchmark::deserialize);
+        report("compact", encode(shapes, false), bytes -> decode(bytes, false));
+        report("compact+deflate", encode(shapes, true), bytes -> decode(bytes, true));
+    }
+
+    private static void report(String name, byte[] bytes, Decoder decoder) throws Exception {
+        // the first round warms up the JIT and is not reported
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            decoder.decode(bytes);
+            long time = System.nanoTime() - start;
+            if (round > 0)
+                best = Math.min(best, time);
+        }
+        int count = decoder.decode(bytes).size();
+        System.out.println("%-16s\t%10d\t%11.1f\t%11.1f".formatted(name, bytes.length, (double) bytes.length / count, best / 1e6));
+    }
+
+    private static byte[] serialize(List<Shape<?>> shapes) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(shapes));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<?> deserialize(byte[] bytes) throws Exception {
+        try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (List<?>) in.readObject();
+        }
+    }
+
+    private static byte[] encode(List<Shape<?>> shapes, boolean deflate) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(deflate ? new DeflaterOutputStream(bytes) : bytes)) {
+            ShapeCodec.write(out, shapes);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<?> decode(byte[] bytes, boolean inflate) throws IOException {
+        InputStream in = new ByteArrayInputStream(bytes);
+        try (var data = new DataInputStream(new BufferedInputStream(inflate ? new InflaterInputStream(in) : in))) {
+            return ShapeCodec.read(data);
+        }
+    }
+
+    private interface Decoder {
+        List<?> decode(byte[] bytes) throws Exception;
+    }
+}
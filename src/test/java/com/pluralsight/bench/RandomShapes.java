@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.bench;
+
+import com.pluralsight.shapes.*;
+
+import java.awt.Color;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Generates random shapes from a seed, so the same settings and seed always give the same shapes.
+ * Shapes are spread over a canvas of the given size, sized in proportion to it, and drawn in {@link #COLORS}.
+ * Filled shapes take their fill from {@link #FILLS}.
+ *
+ * @param width       The width of the canvas
+ * @param height      The height of the canvas
+ * @param type        0 for circles, 1 for rects, 2 for polygons, or -1 for a mix
+ * @param strokeWidth Chooses each shape's stroke width
+ * @param wander      Whether each shape is placed near the one before, as shapes typed in by hand are,
+ *                    rather than anywhere on the canvas
+ * @param filled      Whether about half of the shapes are filled
+ */
+record RandomShapes(int width, int height, int type, ToDoubleFunction<Random> strokeWidth, boolean wander,
+                    boolean filled) {
+    /**
+     * The colors shapes are drawn in, one of them translucent.
+     */
+    static final List<Color> COLORS = List.of(
+        Color.BLACK, Color.RED, Color.BLUE, new Color(0, 128, 0), Color.ORANGE, new Color(0x80336699, true));
+    /**
+     * The colors shapes are filled with, some of them translucent.
+     */
+    static final List<Color> FILLS = List.of(
+        new Color(0xFFCC00), new Color(0x4080C0), new Color(0x80FF0000, true), new Color(0x4000A000, true),
+        new Color(0xC0663399, true));
+
+    /**
+     * @param seed  The seed to generate from
+     * @param count The number of shapes
+     * @return The shapes, in drawing order
+     */
+    List<Shape<?>> generate(long seed, int count) {
+        var random = new Random(seed);
+        var shapes = new ArrayList<Shape<?>>(count);
+        double x = 0;
+        double y = 0;
+        for (int i = 0; i < count; i++) {
+            if (wander) {
+                // mostly whole pixels a short way from the last shape
+                x = Math.floorMod((int) x + random.nextInt(41) - 20 + width / 2, width) - width / 2;
+                y = Math.floorMod((int) y + random.nextInt(41) - 20 + height / 2, height) - height / 2;
+            } else {
+                x = random.nextInt(width) - width / 2.0;
+                y = random.nextInt(height) - height / 2.0;
+            }
+            Shape<?> shape = switch (type < 0 ? random.nextInt(3) : type) {
+                case 0 -> new Circle().withRadius(1 + random.nextInt(width / 8));
+                case 1 -> new Rect().withWidth(1 + random.nextInt(width / 4)).withHeight(1 + random.nextInt(height / 4));
+                default -> new RegularPolygon().withNumSides(3 + random.nextInt(10))
+                    .withRadius(1 + random.nextInt(width / 8)).withAngle(random.nextInt(360));
+            };
+            shape = shape.withColor(COLORS.get(random.nextInt(COLORS.size())))
+                .withStrokeWidth(strokeWidth.applyAsDouble(random))
+                .withOrigin(x, y);
+            // only filled paintings draw any more numbers, so unfilled ones stay the same
+            if (filled && random.nextBoolean())
+                shape = shape.withFillColor(FILLS.get(random.nextInt(FILLS.size())));
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.bench;
+
+import com.pluralsight.drawing.*;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Compares how fast each {@link RenderProfile} draws paths and composites layers.
+ * Runs headlessly; pass a line count to change the workload.
+ */
+@SuppressWarnings("UtilityClass")
+public final class RenderProfileBenchmark {
+    private static final int SIZE = 800;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        System.out.println("profile   \tlines (ms)\tcomposites (ms)");
+        for (RenderProfile profile : RenderProfile.values()) {
+            // the first round warms up the JIT and is not reported
+            long bestLines = Long.MAX_VALUE;
+            long bestComposites = Long.MAX_VALUE;
+            for (int round = 0; round <= ROUNDS; round++) {
+                long[] times = run(profile, lines);
+                if (round == 0)
+                    continue;
+                bestLines = Math.min(bestLines, times[0]);
+                bestComposites = Math.min(bestComposites, times[1]);
+            }
+            System.out.println("%-10s\t%10.1f\t%15.1f".formatted(profile, bestLines / 1e6, bestComposites / 1e6));
+        }
+    }
+
+    private static long[] run(RenderProfile profile, int lines) {
+        BufferedImage ground = profile.createGround(SIZE, SIZE, Color.WHITE);
+        BufferedImage overlay = profile.createOverlay(SIZE, SIZE);
+        BufferedImage back = profile.createGround(SIZE, SIZE, Color.WHITE);
+        Graphics2D gg = ground.createGraphics();
+        Graphics2D og = overlay.createGraphics();
+        Graphics2D bg = back.createGraphics();
+        profile.applyHints(gg);
+        profile.applyHints(og);
+        gg.setBackground(Color.WHITE);
+        gg.clearRect(0, 0, SIZE, SIZE);
+        og.setColor(new Color(0, 128, 0, 200));
+        og.fill(new Ellipse2D.Double(SIZE / 2.0 - 20, SIZE / 2.0 - 20, 40, 40));
+
+        var random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            gg.setColor(new Color(random.nextInt(0xFFFFFF)));
+            gg.setStroke(new BasicStroke(1 + random.nextInt(5), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            gg.draw(new Line2D.Double(
+                random.nextDouble() * SIZE, random.nextDouble() * SIZE,
+                random.nextDouble() * SIZE, random.nextDouble() * SIZE));
+        }
+        long lineTime = System.nanoTime() - start;
+
+        // World composites the ground and overlay after every turtle move
+        start = System.nanoTime();
+        for (int i = 0; i < lines / 100; i++) {
+            bg.drawImage(ground, 0, 0, null);
+            bg.drawImage(overlay, 0, 0, null);
+        }
+        long compositeTime = System.nanoTime() - start;
+
+        gg.dispose();
+        og.dispose();
+        bg.dispose();
+        return new long[]{lineTime, compositeTime};
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Benjamin Bergman 2024.
+ */
+
+package com.pluralsight.bench;
+
+import com.pluralsight.*;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * Starts a {@link RenderService} on a free port and asks it for renders of a painting as a local client would,
+ * comparing the first, drawn render with the cached ones after it.
+ * Both ways of naming a painting are timed: posting its file, and passing its path.
+ * Pass a shape count and a scale to change the workload.
+ */
+@SuppressWarnings("UtilityClass")
+public final class RenderServiceBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        var file = Files.createTempFile("render-service", ".painting");
+        try (var service = RenderService.start(0)) {
+            // the snapshot is written when the journal is opened
+            PaintingJournal.open(file.toFile(), new Painting(800, 800,
+                new RandomShapes(800, 800, -1, random -> 1 + random.nextInt(4) * 0.5, false, false).generate(42, count),
+                null, null)).close();
+            var client = HttpClient.newHttpClient();
+            var base = "http://127.0.0.1:${service.getPort()}/render?scale=$scale";
+            var post = HttpRequest.newBuilder(URI.create(base))
+                .POST(HttpRequest.BodyPublishers.ofFile(file)).build();
+            var get = HttpRequest.newBuilder(URI.create(
+                "$base&file=${URLEncoder.encode(file.toString(), StandardCharsets.UTF_8)}")).build();
+
+            System.out.println("request\tcache\tbytes     \ttime (ms)");
+            for (int round = 0; round <= ROUNDS; round++)
+                report("POST", client, post);
+            report("GET", client, get);
+            System.out.println("${service.getHits()} hits, ${service.getMisses()} misses");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(String name, HttpClient client, HttpRequest request) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        var response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        long time = System.nanoTime() - start;
+        if (response.statusCode() != 200)
+            throw new IOException("${name} failed with ${response.statusCode()}: ${new String(response.body())}");
+        var cache = response.headers().firstValue("X-Cache").orElse("?");
+        System.out.println("%s\t%s\t%10d\t%9.1f".formatted(name, cache, response.body().length, time / 1e6));
+    }
+}